@@ -0,0 +1,77 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the response datagrams checked in under {@code corpus/}.
+ * <p>
+ * Each response is stored as {@code <name>.<n>.bin}, one file per
+ * datagram in the order they are sent. {@link CorpusGenerator} rebuilds
+ * them.
+ */
+final class Corpus {
+
+  static final InetSocketAddress SERVER =
+      new InetSocketAddress("10.0.0.1", 27015);
+
+  static final InetSocketAddress LOCAL =
+      new InetSocketAddress("127.0.0.1", 27005);
+
+  private Corpus() {
+  }
+
+  /**
+   * @param name response name, for example {@code a2s_rules_split}
+   * @return the raw datagrams of the response.
+   */
+  static List<byte[]> load(String name) {
+    List<byte[]> datagrams = new ArrayList<>();
+    for (int n = 0; ; n++) {
+      String resource = "/corpus/" + name + '.' + n + ".bin";
+      try (InputStream in = Corpus.class.getResourceAsStream(resource)) {
+        if (in == null) {
+          break;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[2048];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+          bytes.write(chunk, 0, read);
+        }
+        datagrams.add(bytes.toByteArray());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    if (datagrams.isEmpty()) {
+      throw new IllegalArgumentException("No corpus named " + name);
+    }
+    return datagrams;
+  }
+
+  /**
+   * Copies the datagrams of a response into pooled direct buffers, as they
+   * would arrive from a datagram channel. Release them when done.
+   */
+  static DatagramPacket[] packets(String name) {
+    List<byte[]> datagrams = load(name);
+    DatagramPacket[] packets = new DatagramPacket[datagrams.size()];
+    for (int i = 0; i < packets.length; i++) {
+      byte[] datagram = datagrams.get(i);
+      ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(datagram.length)
+                                                  .writeBytes(datagram);
+      packets[i] = new DatagramPacket(buf, LOCAL, SERVER);
+    }
+    return packets;
+  }
+}
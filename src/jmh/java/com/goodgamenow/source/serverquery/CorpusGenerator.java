@@ -0,0 +1,191 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.itadaki.bzip2.BZip2OutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the benchmark corpus of Source query response datagrams.
+ * <p>
+ * The responses are laid out byte for byte as a Team Fortress 2 dedicated
+ * server sends them, with fixed contents so benchmark runs stay comparable.
+ * Split responses use the 1248 byte fragment size Source servers use.
+ * <pre>{@code
+ *   gradle jmhCorpus
+ * }</pre>
+ */
+public final class CorpusGenerator {
+
+  private static final int SPLIT_SIZE = 1248;
+
+  private static final String[] CVARS = {
+      "coop", "deathmatch", "decalfrequency", "mp_allowNPCs",
+      "mp_autocrosshair", "mp_autoteambalance", "mp_disable_respawn_times",
+      "mp_fadetoblack", "mp_falldamage", "mp_flashlight", "mp_footsteps",
+      "mp_forcerespawn", "mp_fraglimit", "mp_friendlyfire",
+      "mp_highlander", "mp_maxrounds", "mp_respawnwavetime",
+      "mp_stalemate_enable", "mp_teamlist", "mp_teamplay",
+      "mp_timelimit", "mp_tournament", "mp_weaponstay", "mp_winlimit",
+      "nextlevel", "r_AirboatViewDampenDamp", "sv_accelerate",
+      "sv_airaccelerate", "sv_alltalk", "sv_bounce", "sv_cheats",
+      "sv_contact", "sv_footsteps", "sv_friction", "sv_gravity",
+      "sv_maxspeed", "sv_noclipaccelerate", "sv_noclipspeed",
+      "sv_password", "sv_pausable", "sv_rollangle", "sv_rollspeed",
+      "sv_specaccelerate", "sv_specnoclip", "sv_specspeed",
+      "sv_stepsize", "sv_stopspeed", "sv_tags", "sv_voiceenable",
+      "sv_vote_quorum_ratio", "sv_wateraccelerate", "sv_waterfriction",
+      "tf_arena_first_blood", "tf_arena_use_queue", "tf_bot_count",
+      "tf_classlimit", "tf_ctf_bonus_time", "tf_damage_disablespread",
+      "tf_gamemode_arena", "tf_gamemode_cp", "tf_gamemode_ctf",
+      "tf_gamemode_mvm", "tf_gamemode_payload", "tf_gamemode_pd",
+      "tf_gamemode_rd", "tf_gamemode_sd", "tf_mm_servermode",
+      "tf_powerup_mode", "tf_server_identity_disable_quickplay",
+      "tf_use_fixed_weaponspreads", "tf_weapon_criticals",
+      "tf_weapon_criticals_melee", "tv_enable", "tv_password",
+      "tv_relaypassword"};
+
+  private CorpusGenerator() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path dir = Paths.get(args.length > 0 ? args[0]
+                                         : "src/jmh/resources/corpus");
+    Files.createDirectories(dir);
+
+    write(dir, "a2s_info", serverInfo());
+    write(dir, "a2s_challenge", challenge());
+    write(dir, "a2s_player", players(24));
+    write(dir, "a2s_rules", rules(CVARS.length / 2));
+
+    // split payloads still start with the -1 single packet header
+    byte[] manyRules = rules(CVARS.length * 4);
+    write(dir, "a2s_rules_split", split(0x2A, manyRules));
+    write(dir, "a2s_rules_bzip2_split",
+          split(0x2B | Integer.MIN_VALUE, compress(manyRules)));
+  }
+
+  private static void write(Path dir, String name, byte[]... datagrams)
+      throws IOException {
+    for (int n = 0; n < datagrams.length; n++) {
+      Files.write(dir.resolve(name + '.' + n + ".bin"), datagrams[n]);
+    }
+  }
+
+  private static ByteBuf newBuffer() {
+    return Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static void writeString(ByteBuf buf, String value) {
+    buf.writeBytes(value.getBytes(CharsetUtil.UTF_8)).writeByte(0);
+  }
+
+  private static byte[] toArray(ByteBuf buf) {
+    byte[] bytes = new byte[buf.readableBytes()];
+    buf.readBytes(bytes);
+    return bytes;
+  }
+
+  private static byte[] serverInfo() {
+    ByteBuf buf = newBuffer();
+    buf.writeInt(-1).writeByte(0x49).writeByte(17);
+    writeString(buf, "Valve Community Server #42 | 24/7 cp_badlands");
+    writeString(buf, "cp_badlands");
+    writeString(buf, "tf");
+    writeString(buf, "Team Fortress");
+    buf.writeShort(440)
+       .writeByte(18)
+       .writeByte(24)
+       .writeByte(0)
+       .writeByte('d')
+       .writeByte('l')
+       .writeByte(0)
+       .writeByte(1);
+    writeString(buf, "4103362");
+    buf.writeByte(0x80 | 0x10 | 0x20 | 0x01)
+       .writeShort(27015)
+       .writeLong(90101843413520393L);
+    writeString(buf, "alltalk,cp,increased_maxplayers,nocrits");
+    buf.writeLong(440L);
+    return toArray(buf);
+  }
+
+  private static byte[] challenge() {
+    ByteBuf buf = newBuffer();
+    buf.writeInt(-1).writeByte(0x41).writeInt(0x5A3C1E0F);
+    return toArray(buf);
+  }
+
+  private static byte[] players(int count) {
+    Random random = new Random(count);
+    ByteBuf buf = newBuffer();
+    buf.writeInt(-1).writeByte(0x44).writeByte(count);
+    for (int i = 0; i < count; i++) {
+      buf.writeByte(i);
+      writeString(buf, "player " + Integer.toHexString(random.nextInt()));
+      buf.writeInt(random.nextInt(60))
+         .writeFloat(random.nextFloat() * 3600f);
+    }
+    return toArray(buf);
+  }
+
+  private static byte[] rules(int count) {
+    Random random = new Random(count);
+    ByteBuf buf = newBuffer();
+    buf.writeInt(-1).writeByte(0x45).writeShort(count);
+    for (int i = 0; i < count; i++) {
+      String cvar = CVARS[i % CVARS.length];
+      writeString(buf, (i < CVARS.length) ? cvar : cvar + '_' + i);
+      writeString(buf, String.valueOf(random.nextInt(2) == 0
+                                      ? random.nextInt(2)
+                                      : random.nextInt(1000)));
+    }
+    return toArray(buf);
+  }
+
+  /**
+   * Prefixes the bzip2 stream with the decompressed length and CRC32.
+   */
+  private static byte[] compress(byte[] response) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream out = new BZip2OutputStream(compressed)) {
+      out.write(response);
+    }
+    CRC32 crc32 = new CRC32();
+    crc32.update(response);
+
+    ByteBuf buf = newBuffer();
+    buf.writeInt(response.length)
+       .writeInt((int) crc32.getValue())
+       .writeBytes(compressed.toByteArray());
+    return toArray(buf);
+  }
+
+  private static byte[][] split(int id, byte[] payload) {
+    int total = (payload.length + SPLIT_SIZE - 1) / SPLIT_SIZE;
+    byte[][] datagrams = new byte[total][];
+    for (int number = 0; number < total; number++) {
+      int offset = number * SPLIT_SIZE;
+      int length = Math.min(SPLIT_SIZE, payload.length - offset);
+      ByteBuf buf = newBuffer();
+      buf.writeInt(-2)
+         .writeInt(id)
+         .writeByte(total)
+         .writeByte(number)
+         .writeShort(SPLIT_SIZE)
+         .writeBytes(payload, offset, length);
+      datagrams[number] = toArray(buf);
+    }
+    return datagrams;
+  }
+}
@@ -0,0 +1,62 @@
+package com.goodgamenow.source.serverquery;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up and updates in flight queries the way QueryResultHandler does
+ * for each response, with 100k queries outstanding.
+ * <pre>{@code
+ *   gradle jmh -Pinclude=ReconcileMap
+ * }</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReconcileMapBenchmark {
+
+  private static final int IN_FLIGHT = 100_000;
+
+  @Param({"concurrent", "packed"})
+  String map;
+
+  private Map<InetSocketAddress, ServerQuery> reconcileMap;
+
+  private InetSocketAddress[] responders;
+
+  private int next;
+
+  @Setup
+  public void setUp() {
+    reconcileMap = "packed".equals(map) ? new ReconcileMap<>()
+                                        : new ConcurrentHashMap<>();
+    responders = new InetSocketAddress[IN_FLIGHT];
+    for (int i = 0; i < IN_FLIGHT; i++) {
+      InetSocketAddress address = server(i);
+      reconcileMap.put(address, new ServerQuery(address));
+    }
+    // responses carry their own address instances, in no particular order
+    for (int i = 0; i < IN_FLIGHT; i++) {
+      responders[i] = server((int) ((i * 40503L) % IN_FLIGHT));
+    }
+  }
+
+  private static InetSocketAddress server(int i) {
+    return PackedAddresses.unpack(
+        PackedAddresses.pack(0x0A000000 + i * 7, 27015 + (i & 3)));
+  }
+
+  @Benchmark
+  public Object respond() {
+    InetSocketAddress from = responders[next];
+    next = (next + 1 == IN_FLIGHT) ? 0 : next + 1;
+    return reconcileMap.computeIfPresent(from, (address, query) -> query);
+  }
+}
@@ -0,0 +1,80 @@
+package com.goodgamenow.source.serverquery;
+
+import com.goodgamenow.source.serverquery.response.ServerInfo;
+import io.netty.channel.socket.DatagramPacket;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares eager and flyweight decoding of a single A2S_INFO response, with
+ * and without the string cache.
+ * Run with the gc profiler to see allocation per packet:
+ * <pre>{@code
+ *   gradle jmh -Pinclude=ServerInfoDecode
+ * }</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerInfoDecodeBenchmark {
+
+  @Param({"false", "true"})
+  boolean flyweight;
+
+  @Param({"false", "true"})
+  boolean dedup;
+
+  private ServerQueryCodec codec;
+
+  private DatagramPacket packet;
+
+  private final List<Object> out = new ArrayList<>(1);
+
+  @Setup
+  public void setUp() {
+    codec = new ServerQueryCodec(flyweight,
+                                 dedup ? new StringCache(1024) : null);
+
+    packet = Corpus.packets("a2s_info")[0];
+  }
+
+  @TearDown
+  public void tearDown() {
+    packet.release();
+  }
+
+  /**
+   * Decode only, as when a scan filters or counts servers.
+   */
+  @Benchmark
+  public Object decode() throws Exception {
+    packet.content().readerIndex(0);
+    out.clear();
+    codec.decode(null, packet, out);
+    return out.get(0);
+  }
+
+  /**
+   * Decode and read every string field, as when a result is serialized.
+   */
+  @Benchmark
+  public void decodeAndReadStrings(Blackhole bh) throws Exception {
+    packet.content().readerIndex(0);
+    out.clear();
+    codec.decode(null, packet, out);
+    ServerInfo info = (ServerInfo) out.get(0);
+    bh.consume(info.getName());
+    bh.consume(info.getMap());
+    bh.consume(info.getFolder());
+    bh.consume(info.getGame());
+    bh.consume(info.getVersion());
+    bh.consume(info.getKeywords());
+  }
+}
@@ -0,0 +1,115 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes each kind of request and decodes each kind of response in the
+ * corpus through ServerQueryCodec with its default settings.
+ * <pre>{@code
+ *   gradle jmh -Pinclude=ServerQueryCodec
+ * }</pre>
+ * Look at {@code gc.alloc.rate.norm} for bytes allocated per operation; a
+ * decode operation is one whole response, all of its datagrams for split
+ * responses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerQueryCodecBenchmark {
+
+  @State(Scope.Thread)
+  public static class Codec {
+
+    ServerQueryCodec codec;
+
+    ChannelHandlerContext ctx;
+
+    final List<Object> out = new ArrayList<>(1);
+
+    @Setup
+    public void setUp() {
+      codec = new ServerQueryCodec();
+      ctx = new EmbeddedChannel(codec).pipeline().context(codec);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Requests {
+
+    @Param({"info", "player", "rules"})
+    String request;
+
+    ServerQuery query;
+
+    @Setup
+    public void setUp() {
+      boolean info = "info".equals(request);
+      boolean player = "player".equals(request);
+      boolean rules = "rules".equals(request);
+      query = new ServerQuery(
+          new InetSocketAddress("10.0.0.1", 27015),
+          ServerQuery.NO_ID,
+          info ? ServerQuery.ServerInfoRequest.NEEDED
+               : ServerQuery.ServerInfoRequest.NOT_NEEDED,
+          player ? ServerQuery.PlayerInfoRequest.NEEDED
+                 : ServerQuery.PlayerInfoRequest.NOT_NEEDED,
+          rules ? ServerQuery.ServerRulesRequest.NEEDED
+                : ServerQuery.ServerRulesRequest.NOT_NEEDED,
+          ServerQuery.Retries.MAX_RETRIES,
+          () -> 0x5A3C1E0F);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Responses {
+
+    @Param({"a2s_info", "a2s_challenge", "a2s_player", "a2s_rules",
+        "a2s_rules_split", "a2s_rules_bzip2_split"})
+    String response;
+
+    DatagramPacket[] packets;
+
+    @Setup
+    public void setUp() {
+      packets = Corpus.packets(response);
+    }
+
+    @TearDown
+    public void tearDown() {
+      for (DatagramPacket packet : packets) {
+        packet.release();
+      }
+    }
+  }
+
+  @Benchmark
+  public Object encode(Codec codec, Requests requests) throws Exception {
+    codec.out.clear();
+    codec.codec.encode(codec.ctx, requests.query, codec.out);
+    Object packet = codec.out.get(0);
+    ReferenceCountUtil.release(packet);
+    return packet;
+  }
+
+  @Benchmark
+  public Object decode(Codec codec, Responses responses) throws Exception {
+    codec.out.clear();
+    for (DatagramPacket packet : responses.packets) {
+      packet.content().readerIndex(0);
+      codec.codec.decode(codec.ctx, packet, codec.out);
+    }
+    // a response that failed to decode shows up as an error here
+    return codec.out.get(0);
+  }
+}
@@ -0,0 +1,160 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Echoes A2S_INFO sized datagrams off a local responder to compare the
+ * packets per second one event loop gets from each transport.
+ * <pre>{@code
+ *   gradle jmh -Pinclude=Transport
+ * }</pre>
+ * The client and the responder each run on a single event loop, so the
+ * score is packets per second per core on each side. Each operation is one
+ * datagram sent and echoed; a batch of them is written with one flush, which
+ * epoll sends with sendmmsg.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportBenchmark {
+
+  private static final int BATCH = 64;
+
+  private static final long REPLY_TIMEOUT_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(200);
+
+  @Param({"nio", "epoll"})
+  String transport;
+
+  private EventLoopGroup clientGroup;
+
+  private EventLoopGroup responderGroup;
+
+  private Channel client;
+
+  private Channel responder;
+
+  private ByteBuf request;
+
+  private final AtomicLong received = new AtomicLong();
+
+  private long expected;
+
+  @Setup
+  public void setUp() throws InterruptedException {
+    if ("epoll".equals(transport) && !Transports.EPOLL) {
+      throw new IllegalStateException("epoll is not available here.");
+    }
+    clientGroup = newGroup();
+    responderGroup = newGroup();
+
+    responder = bootstrap(responderGroup, new Echo())
+        .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+    client = bootstrap(clientGroup, new Counter(received))
+        .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+    byte[] payload = "Source Engine Query\0".getBytes(CharsetUtil.US_ASCII);
+    request = Unpooled.directBuffer().writeInt(-1).writeByte(0x54)
+                      .writeBytes(payload);
+  }
+
+  private EventLoopGroup newGroup() {
+    return "epoll".equals(transport) ? new EpollEventLoopGroup(1)
+                                     : new NioEventLoopGroup(1);
+  }
+
+  private static Bootstrap bootstrap(EventLoopGroup group,
+                                     ChannelHandler handler) {
+    return new Bootstrap()
+        .group(group)
+        .channel(Transports.datagramChannelType(group))
+        .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+        .option(ChannelOption.SO_SNDBUF, 1024 * 1024)
+        .option(ChannelOption.SO_RCVBUF, 1024 * 1024)
+        .handler(handler);
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    client.close().sync();
+    responder.close().sync();
+    clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    responderGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    request.release();
+  }
+
+  /**
+   * Sends a batch and waits for its echoes. Loopback rarely drops, but a
+   * lost datagram only costs the wait, it doesn't stall the run.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public long echo() {
+    expected += BATCH;
+    InetSocketAddress to = (InetSocketAddress) responder.localAddress();
+    client.eventLoop().execute(() -> {
+      for (int i = 0; i < BATCH; i++) {
+        client.write(new DatagramPacket(request.retainedDuplicate(), to));
+      }
+      client.flush();
+    });
+    long deadline = System.nanoTime() + REPLY_TIMEOUT_NANOS;
+    long count;
+    while ((count = received.get()) < expected &&
+        System.nanoTime() < deadline) {
+      LockSupport.parkNanos(1000);
+    }
+    expected = count;
+    return count;
+  }
+
+  @ChannelHandler.Sharable
+  private static final class Echo
+      extends SimpleChannelInboundHandler<DatagramPacket> {
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx,
+                                DatagramPacket packet) {
+      ctx.write(new DatagramPacket(packet.content().retain(),
+                                   packet.sender()));
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+      ctx.flush();
+    }
+  }
+
+  private static final class Counter
+      extends SimpleChannelInboundHandler<DatagramPacket> {
+
+    private final AtomicLong received;
+
+    private Counter(AtomicLong received) {
+      this.received = received;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx,
+                                DatagramPacket packet) {
+      received.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.goodgamenow.source.serverquery.websocketserver;
+
+import com.goodgamenow.source.serverquery.response.QueryResult;
+import com.goodgamenow.source.serverquery.response.ServerInfo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a read burst of 100 results through WebSocketHandler and flushes,
+ * the way query channels hand results to a websocket, as one frame per
+ * result or as one batched frame.
+ * <pre>{@code
+ *   gradle jmh -Pinclude=JsonFrame
+ * }</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonFrameBenchmark {
+
+  private static final int BURST = 100;
+
+  @Param({"false", "true"})
+  boolean batch;
+
+  private EmbeddedChannel channel;
+
+  private QueryResult[] results;
+
+  @Setup
+  public void setUp() {
+    channel = new EmbeddedChannel(new WebSocketHandler());
+    channel.config().setOption(ChannelOption.ALLOCATOR,
+                               PooledByteBufAllocator.DEFAULT);
+    channel.writeInbound(new TextWebSocketFrame(
+        "{\"type\":\"master\",\"id\":\"bench\",\"region\":\"USWEST\"," +
+            "\"filter\":\"\\\\appid\\\\440\",\"needsRules\":false," +
+            "\"batch\":" + batch + "}"));
+    channel.readInbound();
+
+    results = new QueryResult[BURST];
+    for (int i = 0; i < BURST; i++) {
+      ServerInfo info = new ServerInfo(new InetSocketAddress("10.0.0.1",
+                                                             27015 + i))
+          .protocol((byte) 17)
+          .name("Test server " + i)
+          .map("cp_badlands")
+          .folder("tf")
+          .game("Team Fortress")
+          .appId((short) 440)
+          .players((byte) (i % 24))
+          .maxPlayers((byte) 24)
+          .version("4103362")
+          .keywords("cp,nocrits");
+      info.latency(40 + i % 10);
+      results[i] = new QueryResult(info);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Benchmark
+  public long burst() {
+    for (QueryResult result : results) {
+      channel.write(result);
+    }
+    channel.flush();
+    long bytes = 0;
+    for (Object frame = channel.readOutbound(); frame != null;
+         frame = channel.readOutbound()) {
+      ByteBuf content = ((WebSocketFrame) frame).content();
+      bytes += content.readableBytes();
+      content.release();
+    }
+    return bytes;
+  }
+}
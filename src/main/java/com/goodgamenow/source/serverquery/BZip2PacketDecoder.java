@@ -0,0 +1,180 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.concurrent.FastThreadLocal;
+import org.itadaki.bzip2.BZip2InputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Decompresses reassembled bzip2 responses straight into a pooled ByteBuf.
+ * <p>
+ * A compressed response starts with the decompressed length and the CRC32
+ * of the decompressed bytes, both little endian. The length is checked
+ * against a limit before anything is allocated, the output buffer is
+ * allocated once at exactly that size, and the stream is inflated into the
+ * buffer's backing array with the CRC updated over only the bytes read.
+ * A response that is too large, the wrong length or fails its CRC is
+ * refused.
+ * <p>
+ * One instance per thread, see {@link #current()}, keeps the CRC, the input
+ * adapter and a scratch array for reuse by every packet decoded on that
+ * event loop. The block tables inside BZip2InputStream are still allocated
+ * by the library for each stream.
+ */
+final class BZip2PacketDecoder {
+
+  /**
+   * Largest decompressed response accepted, set by BZIP2_MAX_LENGTH.
+   */
+  static final int MAX_LENGTH =
+      Integer.getInteger("BZIP2_MAX_LENGTH", 256 * 1024);
+
+  private static final int SCRATCH_SIZE = 4096;
+
+  private static final FastThreadLocal<BZip2PacketDecoder> DECODERS =
+      new FastThreadLocal<BZip2PacketDecoder>() {
+        @Override
+        protected BZip2PacketDecoder initialValue() {
+          return new BZip2PacketDecoder();
+        }
+      };
+
+  private final CRC32 crc32 = new CRC32();
+
+  private final ByteBufSource source = new ByteBufSource();
+
+  private byte[] scratch;
+
+  private BZip2PacketDecoder() {
+  }
+
+  /**
+   * @return the decoder owned by the calling thread.
+   */
+  static BZip2PacketDecoder current() {
+    return DECODERS.get();
+  }
+
+  /**
+   * Decompresses a response, consuming {@code compressed}.
+   *
+   * @param compressed length, CRC32 and bzip2 stream of a split response
+   * @param alloc      allocator for the decompressed buffer
+   * @param maxLength  largest decompressed length accepted
+   * @return the decompressed response, which the caller must release.
+   * @exception IllegalStateException if the response is refused.
+   */
+  ByteBuf decode(ByteBuf compressed, ByteBufAllocator alloc, int maxLength) {
+    int uncompressedLength = compressed.readIntLE();
+    int expectedCrc32 = compressed.readIntLE();
+    if (uncompressedLength < 0 || uncompressedLength > maxLength) {
+      throw new IllegalStateException("Refusing " + uncompressedLength +
+                                          " byte decompressed response.");
+    }
+
+    ByteBuf out = alloc.heapBuffer(uncompressedLength, uncompressedLength);
+    boolean success = false;
+    crc32.reset();
+    source.reset(compressed);
+    try (BZip2InputStream inputStream = new BZip2InputStream(source, false)) {
+      if (out.hasArray()) {
+        inflateIntoArray(inputStream, out);
+      } else {
+        inflateThroughScratch(inputStream, out);
+      }
+      if (inputStream.read() != -1) {
+        throw new IllegalStateException(
+            "Decompressed response is longer than " + uncompressedLength);
+      }
+      if ((int) crc32.getValue() != expectedCrc32) {
+        throw new IllegalStateException("Decompressed response failed CRC.");
+      }
+      success = true;
+      return out;
+    } catch (IOException ex) {
+      throw new IllegalStateException("Corrupt bzip2 response.", ex);
+    } finally {
+      source.reset(null);
+      if (!success) {
+        out.release();
+      }
+    }
+  }
+
+  private void inflateIntoArray(BZip2InputStream inputStream, ByteBuf out)
+      throws IOException {
+    byte[] array = out.array();
+    while (out.isWritable()) {
+      int offset = out.arrayOffset() + out.writerIndex();
+      int bytesRead = inputStream.read(array, offset, out.writableBytes());
+      if (bytesRead == -1) {
+        throw shortResponse(out);
+      }
+      crc32.update(array, offset, bytesRead);
+      out.writerIndex(out.writerIndex() + bytesRead);
+    }
+  }
+
+  private void inflateThroughScratch(BZip2InputStream inputStream, ByteBuf out)
+      throws IOException {
+    if (scratch == null) {
+      scratch = new byte[SCRATCH_SIZE];
+    }
+    while (out.isWritable()) {
+      int length = Math.min(scratch.length, out.writableBytes());
+      int bytesRead = inputStream.read(scratch, 0, length);
+      if (bytesRead == -1) {
+        throw shortResponse(out);
+      }
+      crc32.update(scratch, 0, bytesRead);
+      out.writeBytes(scratch, 0, bytesRead);
+    }
+  }
+
+  private static IllegalStateException shortResponse(ByteBuf out) {
+    return new IllegalStateException("Decompressed response is " +
+                                         out.readableBytes() +
+                                         " bytes, expected " +
+                                         out.capacity());
+  }
+
+  /**
+   * Reusable InputStream over the readable bytes of a ByteBuf.
+   */
+  private static final class ByteBufSource extends InputStream {
+
+    private ByteBuf buf;
+
+    void reset(ByteBuf buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+      return buf.isReadable() ? buf.readUnsignedByte() : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      int readable = buf.readableBytes();
+      if (readable == 0) {
+        return -1;
+      }
+      len = Math.min(len, readable);
+      buf.readBytes(b, off, len);
+      return len;
+    }
+
+    @Override
+    public int available() {
+      return buf.readableBytes();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.goodgamenow.source.serverquery;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.jcip.annotations.ThreadSafe;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the challenge number each server last handed out.
+ * <p>
+ * Source servers keep giving a client the same challenge for a while, so a
+ * query built for a server seen recently can send its player and rules
+ * requests with that challenge straight away instead of first paying a
+ * round trip for a challenge response. A server that has moved on answers
+ * the stale challenge with a new one, which replaces the entry.
+ * <p>
+ * Entries expire a fixed time after they were recorded and the number of
+ * servers remembered is bounded.
+ */
+@ThreadSafe
+final class ChallengeCache {
+
+  /**
+   * Process wide cache. CHALLENGE_TTL_MILLIS sets how long a challenge is
+   * trusted, zero disables the cache, and CHALLENGE_CACHE_SIZE bounds the
+   * number of servers remembered.
+   */
+  static final ChallengeCache SHARED =
+      new ChallengeCache(Long.getLong("CHALLENGE_TTL_MILLIS", 30_000L),
+                         Integer.getInteger("CHALLENGE_CACHE_SIZE", 65_536));
+
+  private final Cache<InetSocketAddress, ServerQuery.Challenge> challenges;
+
+  private final boolean enabled;
+
+  /**
+   * @param ttlMillis how long a recorded challenge is used, zero to disable
+   * @param maxSize   most servers remembered at once
+   */
+  ChallengeCache(long ttlMillis, int maxSize) {
+    this.enabled = ttlMillis > 0 && maxSize > 0;
+    this.challenges = CacheBuilder.newBuilder()
+                                  .expireAfterWrite(Math.max(ttlMillis, 0),
+                                                    TimeUnit.MILLISECONDS)
+                                  .maximumSize(Math.max(maxSize, 0))
+                                  .build();
+  }
+
+  /**
+   * Records the challenge a server answered with, replacing any older one.
+   */
+  void put(InetSocketAddress server, int challenge) {
+    if (enabled && challenge != ServerQuery.Challenge.RESET.number()) {
+      challenges.put(server, () -> challenge);
+    }
+  }
+
+  /**
+   * Returns the cached challenge for {@code server} if {@code challenge} has
+   * not been assigned yet, otherwise {@code challenge} itself.
+   */
+  ServerQuery.Challenge seed(InetSocketAddress server,
+                             ServerQuery.Challenge challenge) {
+    boolean assigned =
+        challenge.number() != ServerQuery.Challenge.RESET.number();
+    if (!enabled || assigned) {
+      return challenge;
+    }
+    ServerQuery.Challenge cached = challenges.getIfPresent(server);
+    return (cached == null) ? challenge : cached;
+  }
+
+  /**
+   * Same as {@link #seed(InetSocketAddress, ServerQuery.Challenge)} for a
+   * challenge number.
+   */
+  int seed(InetSocketAddress server, int challenge) {
+    if (!enabled || challenge != ServerQuery.Challenge.RESET.number()) {
+      return challenge;
+    }
+    ServerQuery.Challenge cached = challenges.getIfPresent(server);
+    return (cached == null) ? challenge : cached.number();
+  }
+
+  long size() {
+    return challenges.size();
+  }
+}
@@ -1,6 +1,6 @@
 package com.goodgamenow.source.serverquery;
 
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -30,19 +30,20 @@ public class Client {
     String queryFilter = args[1];
 
     MasterQuery query = new MasterQuery(region, queryFilter);
-    NioEventLoopGroup group = new NioEventLoopGroup();
-    MasterClientBootstrap bootstrap = new MasterClientBootstrap(group, query);
+    EventLoopGroup group = Transports.newEventLoopGroup();
+    MasterListing listing = new MasterListing(group, query);
     try {
-      bootstrap.bind(0).channel().closeFuture().await(3000);
+      listing.start().await(10000);
     } catch (InterruptedException e) {
       System.out.println("Master server response timed out.");
     } finally {
       group.shutdownGracefully();
     }
-    List<String> results = bootstrap.getResults();
+    List<String> results = listing.getResults();
     results.forEach(System.out::println);
     System.out.println(results.size() + " results in " +
-                           bootstrap.getRuntime() + "ms.");
+                           listing.getRuntime() + "ms" +
+                           (listing.isComplete() ? "." : ", incomplete."));
 
   }
 
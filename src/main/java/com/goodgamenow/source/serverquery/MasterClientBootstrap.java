@@ -14,7 +14,6 @@ import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.socket.nio.NioDatagramChannel;
 
 import java.util.List;
 
@@ -46,11 +45,22 @@ public class MasterClientBootstrap extends Bootstrap {
   public MasterClientBootstrap(EventLoopGroup eventLoopGroup,
                                MasterQuery query,
                                ChannelHandlerContext parentContext) {
+    this(eventLoopGroup, query, parentContext, new PackedAddressSet());
+  }
+
+  /**
+   * @param results addresses seen so far, shared with other bootstraps of
+   *                the same listing that run on the same event loop
+   */
+  MasterClientBootstrap(EventLoopGroup eventLoopGroup,
+                        MasterQuery query,
+                        ChannelHandlerContext parentContext,
+                        PackedAddressSet results) {
 
-    this.queryHandler = new MasterQueryHandler(query, parentContext);
+    this.queryHandler = new MasterQueryHandler(query, parentContext, results);
 
     this.group(eventLoopGroup)
-        .channel(NioDatagramChannel.class)
+        .channel(Transports.datagramChannelType(eventLoopGroup))
         .option(ChannelOption.SO_BROADCAST, Boolean.TRUE)
         .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
         .handler(queryHandler)
@@ -61,6 +71,21 @@ public class MasterClientBootstrap extends Bootstrap {
     return queryHandler.getResults();
   }
 
+  /**
+   * @return the addresses received, each packed as {@code ip << 16 | port}
+   * with the ip a big endian int.
+   */
+  public long[] getPackedResults() {
+    return queryHandler.getPackedResults();
+  }
+
+  /**
+   * @return true if the whole listing was received.
+   */
+  public boolean isComplete() {
+    return queryHandler.isComplete();
+  }
+
   public long getRuntime() {
     return queryHandler.getRuntime();
   }
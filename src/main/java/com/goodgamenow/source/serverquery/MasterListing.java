@@ -0,0 +1,160 @@
+package com.goodgamenow.source.serverquery;
+
+import com.goodgamenow.source.serverquery.MasterQuery.Region;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Lists the game servers matching a master query by asking for every region
+ * it covers at once.
+ * <p>
+ * A {@link Region#WORLD} query is split into one query per region plus
+ * one for WORLD itself, which alone lists servers left at the default
+ * region, each paging through the master server on its own channel. All channels of a listing run on one event loop and share
+ * a {@link PackedAddressSet}, so a server is reported once however many
+ * regions or repeated pages list it. Lost pages are asked for again by
+ * {@link MasterQueryHandler}.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ *   MasterListing listing = new MasterListing(eventLoopGroup, query);
+ *   listing.start().addListener(future -> {
+ *      List addresses = listing.getResults();
+ *      // do something with these.
+ *   });
+ * }</pre>
+ */
+public class MasterListing {
+
+  // the eight regions and WORLD itself, which alone lists servers left at
+  // the default region
+  private static final List<Region> WORLD_REGIONS =
+      Collections.unmodifiableList(Arrays.asList(Region.values()));
+
+  private final EventLoop eventLoop;
+
+  private final PackedAddressSet results = new PackedAddressSet();
+
+  private final List<MasterClientBootstrap> bootstraps;
+
+  private final Promise<MasterListing> finished;
+
+  private int running;
+
+  private long startTime;
+
+  private long finishTime;
+
+  public MasterListing(EventLoopGroup eventLoopGroup, MasterQuery query) {
+    this(eventLoopGroup, query, null);
+  }
+
+  /**
+   * @param eventLoopGroup group that supplies the event loop of the listing
+   * @param query          the listing to ask for
+   * @param parentContext  context that receives a server query for every
+   *                       address, or null to only collect them
+   */
+  public MasterListing(EventLoopGroup eventLoopGroup,
+                       MasterQuery query,
+                       ChannelHandlerContext parentContext) {
+    this.eventLoop = eventLoopGroup.next();
+    this.finished = eventLoop.newPromise();
+    this.bootstraps =
+        regionsOf(query).stream()
+                        .map(region -> new MasterQuery(region,
+                                                       query.filter,
+                                                       query.template))
+                        .map(regionQuery -> new MasterClientBootstrap(
+                            eventLoop, regionQuery, parentContext, results))
+                        .collect(Collectors.toList());
+  }
+
+  /**
+   * @return the regions a query is split into. A WORLD query keeps its own
+   * region next to the others, as servers that never set one are only
+   * listed there.
+   */
+  static List<Region> regionsOf(MasterQuery query) {
+    return (query.region == Region.WORLD)
+           ? WORLD_REGIONS
+           : Collections.singletonList(query.region);
+  }
+
+  /**
+   * Binds a channel for each region.
+   *
+   * @return a future completed once every region has finished or given up.
+   */
+  public Future<MasterListing> start() {
+    eventLoop.execute(() -> {
+      startTime = System.currentTimeMillis();
+      running = bootstraps.size();
+      bootstraps.forEach(
+          bootstrap -> bootstrap.bind(0)
+                                .channel().closeFuture()
+                                .addListener(future -> regionFinished()));
+    });
+    return finished;
+  }
+
+  private void regionFinished() {
+    if (--running == 0) {
+      finishTime = System.currentTimeMillis();
+      finished.trySuccess(this);
+    }
+  }
+
+  /**
+   * @return the addresses received, formatted as "ip:port" when read. Only
+   * safe to call once the listing has finished.
+   */
+  public List<String> getResults() {
+    return PackedAddresses.formatted(getPackedResults());
+  }
+
+  /**
+   * @return the addresses received, each packed as {@code ip << 16 | port}
+   * with the ip a big endian int. Only safe to call once the listing has
+   * finished.
+   */
+  public long[] getPackedResults() {
+    return results.toArray();
+  }
+
+  /**
+   * Fires a server query modeled on {@code template} for every address
+   * received into {@code ctx} on its event loop, as a listing started with
+   * that context would have. Only safe to call once the listing has
+   * finished.
+   */
+  public void replay(ChannelHandlerContext ctx, ServerQuery template) {
+    long[] packed = getPackedResults();
+    ctx.executor().execute(() -> {
+      for (long address : packed) {
+        ctx.fireChannelRead(
+            ServerQuery.createFromTemplate(PackedAddresses.unpack(address),
+                                           template));
+      }
+    });
+  }
+
+  /**
+   * @return true if every region was listed to the end.
+   */
+  public boolean isComplete() {
+    return bootstraps.stream().allMatch(MasterClientBootstrap::isComplete);
+  }
+
+  public long getRuntime() {
+    return Math.max(finishTime - startTime, 0L);
+  }
+}
@@ -0,0 +1,104 @@
+package com.goodgamenow.source.serverquery;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.Future;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Shares master server listings between identical master queries.
+ * <p>
+ * Listings are keyed by {@link MasterQuery}, that is by region and filter,
+ * so every user asking for the same servers within the time to live gets
+ * the one listing instead of another round of pages from the master server,
+ * which throttles clients that ask too often. A query asked for while its
+ * listing is still running waits on the same listing. Listings that fail or
+ * end incomplete are dropped once done, so the next query fetches again.
+ * <p>
+ * Entries expire a fixed time after their listing started and the number of
+ * listings kept is bounded.
+ */
+@ThreadSafe
+public final class MasterListingCache {
+
+  /**
+   * How long a listing is reused, set by MASTER_CACHE_TTL_MILLIS. Zero
+   * disables the cache.
+   */
+  static final long DEFAULT_TTL_MILLIS =
+      Long.getLong("MASTER_CACHE_TTL_MILLIS", 60_000L);
+
+  /**
+   * Most listings kept at once, set by MASTER_CACHE_SIZE.
+   */
+  static final int DEFAULT_SIZE = Integer.getInteger("MASTER_CACHE_SIZE", 256);
+
+  private final Cache<MasterQuery, Future<MasterListing>> listings;
+
+  private final Function<MasterQuery, Future<MasterListing>> fetch;
+
+  private final boolean enabled;
+
+  public MasterListingCache(EventLoopGroup eventLoopGroup) {
+    this(eventLoopGroup, DEFAULT_TTL_MILLIS, DEFAULT_SIZE);
+  }
+
+  /**
+   * @param eventLoopGroup group that runs the listings
+   * @param ttlMillis      how long a listing is reused, zero to disable
+   * @param maxSize        most listings kept at once
+   */
+  public MasterListingCache(EventLoopGroup eventLoopGroup,
+                            long ttlMillis,
+                            int maxSize) {
+    this(query -> new MasterListing(eventLoopGroup, query).start(),
+         ttlMillis, maxSize);
+  }
+
+  /**
+   * @param fetch starts the listing of a query
+   */
+  MasterListingCache(Function<MasterQuery, Future<MasterListing>> fetch,
+                     long ttlMillis,
+                     int maxSize) {
+    this.fetch = fetch;
+    this.enabled = ttlMillis > 0 && maxSize > 0;
+    this.listings = CacheBuilder.newBuilder()
+                                .expireAfterWrite(Math.max(ttlMillis, 0),
+                                                  TimeUnit.MILLISECONDS)
+                                .maximumSize(Math.max(maxSize, 0))
+                                .build();
+  }
+
+  /**
+   * @return the cached or running listing of {@code query}, or a new one.
+   */
+  public Future<MasterListing> get(MasterQuery query) {
+    if (!enabled) {
+      return fetch.apply(query);
+    }
+    try {
+      return listings.get(query, () -> {
+        Future<MasterListing> listing = fetch.apply(query);
+        listing.addListener(future -> {
+          if (!future.isSuccess() || !listing.getNow().isComplete()) {
+            listings.asMap().remove(query, listing);
+          }
+        });
+        return listing;
+      });
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException("Could not start listing " + query,
+                                      ex.getCause());
+    }
+  }
+
+  long size() {
+    return listings.size();
+  }
+}
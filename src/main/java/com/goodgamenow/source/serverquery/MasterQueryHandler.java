@@ -11,25 +11,35 @@ package com.goodgamenow.source.serverquery;
 
 import com.goodgamenow.source.serverquery.MasterQuery.Region;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Handles sending a query and receiving game server data with the
  * Source Master Server.
  * <p>
  * Sends the query when the channel is bound and becomes active. Decodes
- * responses into a list which can be retrieved with a call to
- * #getResults.
+ * the six byte entries of each response straight into packed addresses,
+ * see {@link PackedAddresses}, which can be retrieved with a call to
+ * #getPackedResults or as strings with #getResults.
+ * <p>
+ * Every page request has a deadline on the timer wheel. A page that does
+ * not arrive in time is asked for again with the same cursor and the
+ * listing is given up as incomplete when the retries run out. Addresses go
+ * through a {@link PackedAddressSet}, which may be shared by the handlers
+ * of one listing, so a page answered twice or a server listed in two
+ * regions is only reported once.
  *
  * @see MasterQuery#MasterQuery(Region, String)
  * @see MasterResponse#MasterResponse(String, String, long)
@@ -51,9 +61,9 @@ class MasterQueryHandler
 
   /**
    * Initial ip of the request packet and
-   * marker string for when the last query result is received.
+   * marker for when the last query result is received, 0.0.0.0:0 packed.
    */
-  private static final String DEFAULT_IP = "0.0.0.0:0";
+  private static final long DEFAULT_IP = 0L;
 
   /**
    * First byte of the request packet.
@@ -66,20 +76,49 @@ class MasterQueryHandler
   private static final int NULL_TERMINATOR = 0;
 
   /**
-   * The expected response header string
+   * The expected response header, 255.255.255.255:26122 packed.
+   */
+  private static final long EXPECTED_HEADER = PackedAddresses.pack(-1, 26122);
+
+  /**
+   * Width of an address entry, four bytes of ip and two of port.
+   */
+  private static final int ADDR_WIDTH = 6;
+
+  /**
+   * How long to wait for a page, set by MASTER_PAGE_TIMEOUT_MILLIS.
+   */
+  static final long PAGE_TIMEOUT_MILLIS =
+      Long.getLong("MASTER_PAGE_TIMEOUT_MILLIS", 1500L);
+
+  /**
+   * How many times a lost page is asked for again, set by
+   * MASTER_PAGE_RETRIES.
    */
-  private static final String EXPECTED_HEADER_STRING = "255.255.255.255:26122";
+  static final int PAGE_RETRIES = Integer.getInteger("MASTER_PAGE_RETRIES", 3);
 
   private final MasterQuery query;
 
-  private final InetSocketAddress masterAddress =
-      new InetSocketAddress(MASTER_SERVER, MASTER_SERVER_PORT);
+  private final InetSocketAddress masterAddress;
+
+  private final PackedAddressSet results;
 
-  private final List<String> results;
+  // cursors already asked for, a page ending on one of them is a repeat
+  private final PackedAddressSet cursors = new PackedAddressSet(64);
 
   private final ChannelHandlerContext parentContext;
 
-  private String lastAddress;
+  private final Timer timer;
+
+  private final long pageTimeoutMillis;
+
+  private long lastAddress;
+
+  private Timeout pageDeadline;
+
+  private int retries;
+
+  private boolean complete;
 
   private long startTime;
 
@@ -91,16 +130,61 @@ class MasterQueryHandler
 
   MasterQueryHandler(MasterQuery query,
                      ChannelHandlerContext parentContext) {
+    this(query, parentContext, new PackedAddressSet());
+  }
+
+  /**
+   * @param query         the listing to ask for
+   * @param parentContext context that receives a server query for every
+   *                      address, or null to only collect them
+   * @param results       addresses seen so far, shared by the handlers of a
+   *                      listing that must not report an address twice
+   */
+  MasterQueryHandler(MasterQuery query,
+                     ChannelHandlerContext parentContext,
+                     PackedAddressSet results) {
+    this(query, parentContext, results,
+         new InetSocketAddress(MASTER_SERVER, MASTER_SERVER_PORT),
+         WheelTimer.INSTANCE, PAGE_TIMEOUT_MILLIS);
+  }
+
+  MasterQueryHandler(MasterQuery query,
+                     ChannelHandlerContext parentContext,
+                     PackedAddressSet results,
+                     InetSocketAddress masterAddress,
+                     Timer timer,
+                     long pageTimeoutMillis) {
     this.parentContext = parentContext;
     this.query = query;
     this.lastAddress = DEFAULT_IP;
-    this.results = (parentContext == null) ? new ArrayList<>() : null;
+    this.results = results;
+    this.masterAddress = masterAddress;
+    this.timer = timer;
+    this.pageTimeoutMillis = pageTimeoutMillis;
   }
 
+  /**
+   * @return the addresses received so far as "ip:port" strings, each one
+   * formatted when it is read.
+   */
   public List<String> getResults() {
-    return (results == null) ?
-           Collections.emptyList() :
-           Collections.unmodifiableList(results);
+    return PackedAddresses.formatted(getPackedResults());
+  }
+
+  /**
+   * @return a copy of the addresses received so far, each packed as
+   * {@code ip << 16 | port}.
+   */
+  long[] getPackedResults() {
+    return results.toArray();
+  }
+
+  /**
+   * @return true once the end of the listing was received, false while
+   * still paging or if a page was lost for good.
+   */
+  boolean isComplete() {
+    return complete;
   }
 
   /**
@@ -118,91 +202,139 @@ class MasterQueryHandler
     ByteBuf buf = msg.content();
 
     // sanity check
-    int ADDR_WIDTH = 6;
     assert (buf.readableBytes() % ADDR_WIDTH) == 0 :
         "Master response byte count is not 6 byte aligned.";
 
     // decode response header
-    String header = decodeIpAddress(buf);
-    assert EXPECTED_HEADER_STRING.equals(header);
+    long header = decodeIpAddress(buf);
+    assert EXPECTED_HEADER == header;
 
+    long cursor = lastAddress;
     while (buf.isReadable(ADDR_WIDTH)) {
-      lastAddress = decodeIpAddress(buf);
+      long address = decodeIpAddress(buf);
       // A last address of 0.0.0.0:0 denotes the end of transmission.
-      if (DEFAULT_IP.equals(lastAddress)) {
+      if (DEFAULT_IP == address) {
+        cancelDeadline();
+        complete = true;
         ctx.flush();
         ctx.close();
         finishTime = System.currentTimeMillis();
         return;
       }
+      cursor = address;
 
+      // servers already seen on another page or region are skipped.
+      if (!results.add(address)) {
+        continue;
+      }
       if (parentContext != null) {
-        InetSocketAddress address = createInetSocketAddress(lastAddress);
+        InetSocketAddress serverAddress = PackedAddresses.unpack(address);
         ServerQuery template = query.template;
-        ServerQuery squery = ServerQuery.createFromTemplate(address, template);
+        ServerQuery squery =
+            ServerQuery.createFromTemplate(serverAddress, template);
         parentContext.fireChannelRead(squery);
-      } else {
-        if (results == null) {   // should never happen
-          throw new IllegalStateException(
-              "Results container is null when there is no other " +
-                  "ChannelHandlerContext to send results.");
-        }
-        // we are storing for bulk access later.
-        results.add(lastAddress);
       }
-
     }
 
     assert buf.readableBytes() == 0;
+    // a repeated or late page must not start a second chain of requests.
+    if (cursors.contains(cursor)) {
+      return;
+    }
     // ask for more results
-    this.channelActive(ctx);
+    lastAddress = cursor;
+    retries = PAGE_RETRIES;
+    requestPage(ctx);
   }
 
   /**
-   * Decodes the address and port from a six byte representation
-   * 001.002.003.004:00056
+   * Decodes the address and port from a six byte representation, both
+   * big endian.
    *
    * @param buf master server response buffer
-   * @return IpAddress:port representation
+   * @return the packed address
    */
-  private static String decodeIpAddress(ByteBuf buf) {
-    assert 0 == (buf.readableBytes() % 6);
-
-    return String.valueOf(decodeAddress(buf) + ':' + decodePort(buf));
+  private static long decodeIpAddress(ByteBuf buf) {
+    return PackedAddresses.pack(buf.readInt(), buf.readUnsignedShort());
   }
 
-  private InetSocketAddress createInetSocketAddress(String serverAddress) {
-    String[] addy = serverAddress.split(":");
-    int port = Integer.parseInt(addy[1]);
-    return new InetSocketAddress(addy[0], port);
+  @Override
+  public void channelActive(ChannelHandlerContext ctx)
+      throws UnsupportedEncodingException {
+
+    if (0L == startTime) {
+      startTime = System.currentTimeMillis();
+    }
+    retries = PAGE_RETRIES;
+    requestPage(ctx);
   }
 
   /**
-   * Fires a Datagram packet with its associated query to the master server.
+   * Fires a Datagram packet with its associated query to the master server
+   * and arms the deadline for its page.
    *
    * @param ctx channel handler context
    * @exception UnsupportedEncodingException
    */
-  @Override
-  public void channelActive(ChannelHandlerContext ctx)
+  private void requestPage(ChannelHandlerContext ctx)
       throws UnsupportedEncodingException {
-
-    if (0L == startTime) {
-      startTime = System.currentTimeMillis();
-    }
+    cursors.add(lastAddress);
 
     // create the query buffer
     ByteBuf buf = ctx.alloc().buffer()
                      .writeByte(MSG_TYPE)
-                     .writeByte(query.region.code)
-                     .writeBytes(lastAddress.getBytes("US-ASCII"))
-                     .writeByte(NULL_TERMINATOR)
-                     .writeBytes(query.filter.getBytes("UTF-8"))
-                     .writeByte(NULL_TERMINATOR);
+                     .writeByte(query.region.code);
+    ByteBufUtil.writeAscii(buf, PackedAddresses.format(lastAddress));
+    buf.writeByte(NULL_TERMINATOR)
+       .writeBytes(query.filter.getBytes("UTF-8"))
+       .writeByte(NULL_TERMINATOR);
 
     // Master server results are paged, sending last address received
     // back to master will give us another page.
     ctx.writeAndFlush(new DatagramPacket(buf, masterAddress));
+
+    cancelDeadline();
+    long cursor = lastAddress;
+    pageDeadline = timer.newTimeout(
+        timeout -> ctx.executor().execute(() -> pageLost(ctx, cursor)),
+        pageTimeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Asks for a page again or gives up on the listing.
+   */
+  private void pageLost(ChannelHandlerContext ctx, long cursor) {
+    // answered in the meantime
+    if (complete || cursor != lastAddress || !ctx.channel().isOpen()) {
+      return;
+    }
+    if (retries-- < 1) {
+      logger.warn("Giving up on {} listing after {} servers, page lost.",
+                  query.region, results.size());
+      finishTime = System.currentTimeMillis();
+      ctx.close();
+      return;
+    }
+    logger.debug("Asking {} again for page after {}", query.region,
+                 PackedAddresses.format(cursor));
+    try {
+      requestPage(ctx);
+    } catch (UnsupportedEncodingException ex) {
+      ctx.fireExceptionCaught(ex);
+    }
+  }
+
+  private void cancelDeadline() {
+    if (pageDeadline != null) {
+      pageDeadline.cancel();
+      pageDeadline = null;
+    }
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    cancelDeadline();
+    super.channelInactive(ctx);
   }
 
 //  @Override
@@ -212,19 +344,6 @@ class MasterQueryHandler
 //    }
 //  }
 
-  private static String decodeAddress(ByteBuf buf) {
-    return "" +
-        Byte.toUnsignedInt(buf.readByte()) + '.' +
-        Byte.toUnsignedInt(buf.readByte()) + '.' +
-        Byte.toUnsignedInt(buf.readByte()) + '.' +
-        Byte.toUnsignedInt(buf.readByte());
-  }
-
-  private static int decodePort(ByteBuf buf) {
-    return buf.readUnsignedShort();
-  }
-
-
   long getRuntime() {
     long result = finishTime - startTime;
     if (0L > result) {
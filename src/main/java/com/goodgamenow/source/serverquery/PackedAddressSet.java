@@ -0,0 +1,104 @@
+package com.goodgamenow.source.serverquery;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * A set of packed addresses, see {@link PackedAddresses}, that remembers the
+ * order they were added in.
+ * <p>
+ * Addresses are kept in an open addressing table of longs with linear
+ * probing, so a master listing of tens of thousands of servers is
+ * deduplicated without boxing a key or allocating a node per address.
+ * Packed addresses are never negative, which leaves NOT_PACKED free to mark
+ * an empty slot.
+ */
+@NotThreadSafe
+final class PackedAddressSet {
+
+  // same odd multiplier as ReconcileMap, packed addresses differ mostly in
+  // the low bits of the port
+  private static final long SCRAMBLE = 0x9E3779B97F4A7C15L;
+
+  private long[] table;
+
+  private long[] order;
+
+  private int size;
+
+  PackedAddressSet() {
+    this(1024);
+  }
+
+  /**
+   * @param capacity expected number of addresses
+   */
+  PackedAddressSet(int capacity) {
+    int slots = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+    this.table = new long[slots];
+    Arrays.fill(table, PackedAddresses.NOT_PACKED);
+    this.order = new long[Math.max(capacity, 8)];
+  }
+
+  /**
+   * @param packed a packed address
+   * @return true if the address was not in the set yet.
+   */
+  boolean add(long packed) {
+    if (packed < 0) {
+      throw new IllegalArgumentException("Not a packed address " + packed);
+    }
+    int slot = find(table, packed);
+    if (table[slot] == packed) {
+      return false;
+    }
+    table[slot] = packed;
+    if (size == order.length) {
+      order = Arrays.copyOf(order, size * 2);
+    }
+    order[size++] = packed;
+    // keep the table at most half full
+    if (size * 2 > table.length) {
+      rehash();
+    }
+    return true;
+  }
+
+  boolean contains(long packed) {
+    return (packed >= 0) && table[find(table, packed)] == packed;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the addresses in the order they were first added.
+   */
+  long[] toArray() {
+    return Arrays.copyOf(order, size);
+  }
+
+  /**
+   * @return the slot holding {@code packed} or the empty slot it belongs in.
+   */
+  private static int find(long[] table, long packed) {
+    int mask = table.length - 1;
+    int slot = (int) ((packed * SCRAMBLE) >>> 32) & mask;
+    while (table[slot] != PackedAddresses.NOT_PACKED &&
+        table[slot] != packed) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash() {
+    long[] larger = new long[table.length * 2];
+    Arrays.fill(larger, PackedAddresses.NOT_PACKED);
+    for (int i = 0; i < size; i++) {
+      larger[find(larger, order[i])] = order[i];
+    }
+    table = larger;
+  }
+}
@@ -0,0 +1,104 @@
+package com.goodgamenow.source.serverquery;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Packs an IPv4 socket address into the low 48 bits of a long, the address
+ * above the port, as {@code ip << 16 | port}.
+ * <p>
+ * Game servers from the master server are always IPv4, so a packed long
+ * identifies one without the objects an InetSocketAddress costs. Packed
+ * addresses are never negative, which leaves negative values free for
+ * callers to use as markers.
+ */
+final class PackedAddresses {
+
+  /**
+   * Returned for addresses that can't be packed.
+   */
+  static final long NOT_PACKED = -1L;
+
+  private PackedAddresses() {
+  }
+
+  /**
+   * @return the packed address, or {@link #NOT_PACKED} if {@code address}
+   * is unresolved or not IPv4.
+   */
+  static long pack(InetSocketAddress address) {
+    InetAddress ip = address.getAddress();
+    if (!(ip instanceof Inet4Address)) {
+      return NOT_PACKED;
+    }
+    byte[] octets = ip.getAddress();
+    return pack(((octets[0] & 0xFF) << 24) |
+                    ((octets[1] & 0xFF) << 16) |
+                    ((octets[2] & 0xFF) << 8) |
+                    (octets[3] & 0xFF),
+                address.getPort());
+  }
+
+  /**
+   * @param ip   IPv4 address as a big endian int
+   * @param port port number
+   */
+  static long pack(int ip, int port) {
+    return ((ip & 0xFFFFFFFFL) << 16) | (port & 0xFFFF);
+  }
+
+  static int ip(long packed) {
+    return (int) (packed >>> 16);
+  }
+
+  static int port(long packed) {
+    return (int) (packed & 0xFFFF);
+  }
+
+  /**
+   * @return the address as "a.b.c.d:port".
+   */
+  static String format(long packed) {
+    int ip = ip(packed);
+    return new StringBuilder(21).append(ip >>> 24)
+                                .append('.').append((ip >>> 16) & 0xFF)
+                                .append('.').append((ip >>> 8) & 0xFF)
+                                .append('.').append(ip & 0xFF)
+                                .append(':').append(port(packed))
+                                .toString();
+  }
+
+  /**
+   * @return a list view that formats each address when it is read.
+   */
+  static List<String> formatted(long[] packed) {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        return format(packed[index]);
+      }
+
+      @Override
+      public int size() {
+        return packed.length;
+      }
+    };
+  }
+
+  static InetSocketAddress unpack(long packed) {
+    int ip = ip(packed);
+    byte[] octets = {(byte) (ip >>> 24), (byte) (ip >>> 16),
+        (byte) (ip >>> 8), (byte) ip};
+    try {
+      return new InetSocketAddress(InetAddress.getByAddress(octets),
+                                   port(packed));
+    } catch (UnknownHostException ex) {
+      // only thrown for an array of the wrong length
+      throw new IllegalStateException(ex);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package com.goodgamenow.source.serverquery;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+
+/**
+ * Queries waiting to be sent, kept as packed addresses.
+ * <p>
+ * The queries of one master listing differ only by address, so consecutive
+ * queries with the same options share a run that holds one template and
+ * eight bytes per server rather than a query object each. Queries are
+ * rebuilt from their run's template as they are taken, picking up the
+ * challenge each server last handed out.
+ */
+@NotThreadSafe
+public final class PendingQueries {
+
+  private static final int INITIAL_RUN_CAPACITY = 64;
+
+  private final Deque<Run> runs = new ArrayDeque<>();
+
+  private int size;
+
+  public void add(ServerQuery query) {
+    long packed = PackedAddresses.pack(query.address);
+    Run last = runs.peekLast();
+    if (packed == PackedAddresses.NOT_PACKED) {
+      runs.addLast(new Run(query));
+    } else if (last != null && last.takes(query)) {
+      last.add(packed);
+    } else {
+      Run run = new Run(template(query));
+      run.add(packed);
+      runs.addLast(run);
+    }
+    size++;
+  }
+
+  /**
+   * @return the oldest query, null if there are none.
+   */
+  public ServerQuery poll() {
+    Run first = runs.peekFirst();
+    if (first == null) {
+      return null;
+    }
+    ServerQuery query = first.poll();
+    if (first.isEmpty()) {
+      runs.pollFirst();
+    }
+    size--;
+    return query;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    runs.clear();
+    size = 0;
+  }
+
+  /**
+   * @return a query with the options of {@code query} and without the
+   * challenge it was seeded with for its own server.
+   */
+  private static ServerQuery template(ServerQuery query) {
+    return new ServerQuery(new InetSocketAddress("127.0.0.1", 0),
+                           query.queryId,
+                           query.serverInfoRequest,
+                           query.playerInfoRequest,
+                           query.serverRulesRequest,
+                           query.retries,
+                           ServerQuery.Challenge.RESET,
+                           query.pipelining);
+  }
+
+  /**
+   * Queries that differ only by address, or a single query whose address
+   * can't be packed.
+   */
+  private static final class Run {
+
+    private final ServerQuery template;
+
+    // a lone unpackable query when null
+    private long[] addresses;
+
+    private int head;
+
+    private int tail;
+
+    Run(ServerQuery template) {
+      this.template = template;
+    }
+
+    boolean takes(ServerQuery query) {
+      return addresses != null &&
+          Objects.equals(template.queryId, query.queryId) &&
+          template.serverInfoRequest.isNeeded() ==
+              query.serverInfoRequest.isNeeded() &&
+          template.playerInfoRequest.isNeeded() ==
+              query.playerInfoRequest.isNeeded() &&
+          template.serverRulesRequest.isNeeded() ==
+              query.serverRulesRequest.isNeeded() &&
+          template.retries.remaining() == query.retries.remaining() &&
+          template.pipelining.isPipelined() ==
+              query.pipelining.isPipelined();
+    }
+
+    void add(long packed) {
+      if (addresses == null) {
+        addresses = new long[INITIAL_RUN_CAPACITY];
+      } else if (tail == addresses.length) {
+        addresses = Arrays.copyOf(addresses, addresses.length * 2);
+      }
+      addresses[tail++] = packed;
+    }
+
+    ServerQuery poll() {
+      if (addresses == null) {
+        head = tail = 1;
+        return template;
+      }
+      return ServerQuery.createFromTemplate(
+          PackedAddresses.unpack(addresses[head++]), template);
+    }
+
+    boolean isEmpty() {
+      return (addresses == null) ? head > 0 : head == tail;
+    }
+  }
+}
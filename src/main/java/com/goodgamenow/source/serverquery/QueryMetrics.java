@@ -0,0 +1,312 @@
+package com.goodgamenow.source.serverquery;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and latency histograms of the query pipeline, written
+ * out in the Prometheus text format by {@link #scrape()}.
+ * <p>
+ * Every value is kept in {@link LongAdder}s, which spread concurrent
+ * updates over cells of their own, so event loops recording the same
+ * metric don't contend on one cache line. Reading a value sums the cells
+ * and is only as consistent as a scrape needs.
+ * <p>
+ * The pipeline records into {@link #SHARED} through the constants below.
+ */
+@ThreadSafe
+public final class QueryMetrics {
+
+  public static final QueryMetrics SHARED = new QueryMetrics();
+
+  // upper bounds in seconds
+  private static final double[] NETWORK_BUCKETS =
+      {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  private static final double[] DECODE_BUCKETS =
+      {0.000_001, 0.000_005, 0.000_01, 0.000_05, 0.000_1, 0.000_5, 0.001,
+          0.005, 0.01};
+
+  static final Counter INFO_SENT = SHARED.counter(
+      "a2s_requests_sent_total", "Requests written to servers.",
+      "type=\"info\"");
+
+  static final Counter PLAYERS_SENT = SHARED.counter(
+      "a2s_requests_sent_total", null, "type=\"players\"");
+
+  static final Counter RULES_SENT = SHARED.counter(
+      "a2s_requests_sent_total", null, "type=\"rules\"");
+
+  static final Counter INFO_RECEIVED = SHARED.counter(
+      "a2s_responses_received_total", "Responses decoded, by header.",
+      "type=\"info\"");
+
+  static final Counter PLAYERS_RECEIVED = SHARED.counter(
+      "a2s_responses_received_total", null, "type=\"players\"");
+
+  static final Counter RULES_RECEIVED = SHARED.counter(
+      "a2s_responses_received_total", null, "type=\"rules\"");
+
+  static final Counter CHALLENGES_RECEIVED = SHARED.counter(
+      "a2s_responses_received_total", null, "type=\"challenge\"");
+
+  static final Counter TIMEOUTS = SHARED.counter(
+      "a2s_timeouts_total", "Queries whose deadline passed unanswered.", null);
+
+  static final Counter RETRIES = SHARED.counter(
+      "a2s_retries_total", "Queries resent after a timeout.", null);
+
+  static final Counter RETRIES_EXHAUSTED = SHARED.counter(
+      "a2s_retries_exhausted_total",
+      "Queries given up on with no retries left.", null);
+
+  static final Counter SPLIT_COMPLETED = SHARED.counter(
+      "a2s_split_groups_total", "Split responses, by how they ended.",
+      "outcome=\"completed\"");
+
+  static final Counter SPLIT_EXPIRED = SHARED.counter(
+      "a2s_split_groups_total", null, "outcome=\"expired\"");
+
+  static final Counter SPLIT_EVICTED = SHARED.counter(
+      "a2s_split_groups_total", null, "outcome=\"evicted\"");
+
+  static final Counter BZIP2_DECODES = SHARED.counter(
+      "a2s_bzip2_decodes_total", "Compressed split responses inflated.",
+      null);
+
+  static final Counter DECODE_FAILURES = SHARED.counter(
+      "a2s_decode_failures_total", "Datagrams that could not be decoded.",
+      null);
+
+  static final Gauge RECONCILE_ENTRIES = SHARED.gauge(
+      "a2s_reconcile_entries",
+      "Queries in flight across every channel's reconcile map.");
+
+  static final Histogram RTT = SHARED.histogram(
+      "a2s_rtt_seconds", "Time from writing a request to its response.",
+      NETWORK_BUCKETS);
+
+  static final Histogram QUERY_DURATION = SHARED.histogram(
+      "a2s_query_duration_seconds",
+      "Time from first writing a query to its last response, retries " +
+          "included.", NETWORK_BUCKETS);
+
+  static final Histogram DECODE_DURATION = SHARED.histogram(
+      "a2s_decode_duration_seconds",
+      "Time spent decoding a datagram, reassembly and inflating included.",
+      DECODE_BUCKETS);
+
+  @GuardedBy("this")
+  private final Map<String, Family> families = new LinkedHashMap<>();
+
+  QueryMetrics() {
+  }
+
+  /**
+   * @param help   written once per name, may be null for further series
+   * @param labels the series' labels as written between braces, may be null
+   */
+  synchronized Counter counter(String name, String help, String labels) {
+    return register(name, help, "counter", labels, new Counter());
+  }
+
+  synchronized Gauge gauge(String name, String help) {
+    return register(name, help, "gauge", null, new Gauge());
+  }
+
+  /**
+   * @param bounds upper bounds of the buckets in seconds, ascending
+   */
+  synchronized Histogram histogram(String name,
+                                   String help,
+                                   double... bounds) {
+    return register(name, help, "histogram", null, new Histogram(bounds));
+  }
+
+  private <M extends Metric> M register(String name, String help,
+                                        String type, String labels,
+                                        M metric) {
+    Family family = families.computeIfAbsent(name,
+                                             n -> new Family(help, type));
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(name + " is a " + family.type);
+    }
+    family.series.add(new Series(labels, metric));
+    return metric;
+  }
+
+  /**
+   * @return every metric in the Prometheus text exposition format.
+   */
+  public synchronized String scrape() {
+    StringBuilder out = new StringBuilder(4096);
+    families.forEach((name, family) -> {
+      if (family.help != null) {
+        out.append("# HELP ").append(name).append(' ')
+           .append(family.help).append('\n');
+      }
+      out.append("# TYPE ").append(name).append(' ')
+         .append(family.type).append('\n');
+      for (Series series : family.series) {
+        series.metric.writeTo(out, name, series.labels);
+      }
+    });
+    return out.toString();
+  }
+
+  private static void sample(StringBuilder out, String name, String labels,
+                             String value) {
+    out.append(name);
+    if (labels != null) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(value).append('\n');
+  }
+
+  private static String seconds(long nanos) {
+    return Double.toString(nanos / (double) TimeUnit.SECONDS.toNanos(1));
+  }
+
+  private abstract static class Metric {
+
+    abstract void writeTo(StringBuilder out, String name, String labels);
+  }
+
+  /**
+   * A count that only goes up.
+   */
+  @ThreadSafe
+  static final class Counter extends Metric {
+
+    private final LongAdder count = new LongAdder();
+
+    void inc() {
+      count.increment();
+    }
+
+    long sum() {
+      return count.sum();
+    }
+
+    @Override
+    void writeTo(StringBuilder out, String name, String labels) {
+      sample(out, name, labels, Long.toString(count.sum()));
+    }
+  }
+
+  /**
+   * A level that goes up and down.
+   */
+  @ThreadSafe
+  static final class Gauge extends Metric {
+
+    private final LongAdder level = new LongAdder();
+
+    void add(long delta) {
+      level.add(delta);
+    }
+
+    long sum() {
+      return level.sum();
+    }
+
+    @Override
+    void writeTo(StringBuilder out, String name, String labels) {
+      sample(out, name, labels, Long.toString(level.sum()));
+    }
+  }
+
+  /**
+   * Durations counted into fixed buckets.
+   */
+  @ThreadSafe
+  static final class Histogram extends Metric {
+
+    private final double[] bounds;
+
+    private final long[] boundNanos;
+
+    // one past the last bound for anything larger
+    private final LongAdder[] buckets;
+
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram(double[] bounds) {
+      this.bounds = bounds.clone();
+      this.boundNanos = Arrays.stream(bounds)
+                              .mapToLong(s -> (long) (s * 1e9))
+                              .toArray();
+      this.buckets = new LongAdder[bounds.length + 1];
+      Arrays.setAll(buckets, i -> new LongAdder());
+    }
+
+    void record(long nanos) {
+      int i = 0;
+      while (i < boundNanos.length && nanos > boundNanos[i]) {
+        i++;
+      }
+      buckets[i].increment();
+      sumNanos.add(nanos);
+    }
+
+    void recordMillis(long millis) {
+      record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    long count() {
+      long count = 0;
+      for (LongAdder bucket : buckets) {
+        count += bucket.sum();
+      }
+      return count;
+    }
+
+    @Override
+    void writeTo(StringBuilder out, String name, String labels) {
+      String prefix = (labels == null) ? "" : labels + ',';
+      long cumulative = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        cumulative += buckets[i].sum();
+        String le = (i < bounds.length) ? Double.toString(bounds[i]) : "+Inf";
+        sample(out, name + "_bucket", prefix + "le=\"" + le + '"',
+               Long.toString(cumulative));
+      }
+      sample(out, name + "_sum", labels, seconds(sumNanos.sum()));
+      sample(out, name + "_count", labels, Long.toString(cumulative));
+    }
+  }
+
+  private static final class Family {
+
+    final String help;
+
+    final String type;
+
+    final List<Series> series = new ArrayList<>(1);
+
+    Family(String help, String type) {
+      this.help = help;
+      this.type = type;
+    }
+  }
+
+  private static final class Series {
+
+    final String labels;
+
+    final Metric metric;
+
+    Series(String labels, Metric metric) {
+      this.labels = labels;
+      this.metric = metric;
+    }
+  }
+}
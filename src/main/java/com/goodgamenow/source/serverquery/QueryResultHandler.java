@@ -1,6 +1,8 @@
 package com.goodgamenow.source.serverquery;
 
+import com.goodgamenow.source.serverquery.response.ChallengeResponse;
 import com.goodgamenow.source.serverquery.response.QueryResult;
+import com.goodgamenow.source.serverquery.response.ServerInfo;
 import com.goodgamenow.source.serverquery.response.ServerResponse;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -10,6 +12,8 @@ import org.apache.logging.log4j.Logger;
 import java.net.InetSocketAddress;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * User: Joe Nellis
@@ -21,18 +25,52 @@ public class QueryResultHandler
 
   private final Logger logger = LogManager.getLogger();
 
-  private final Map<InetSocketAddress, ServerQuery> reconcileMap;
+  private final Map<InetSocketAddress, QueryState> reconcileMap;
 
   private final Map<InetSocketAddress, QueryResult> resultMap;
 
-  private final Optional<ChannelHandlerContext> parentContext;
+  private final Optional<ResultCoalescer> parentResults;
 
-  public QueryResultHandler(Map<InetSocketAddress, ServerQuery> reconcileMap,
+  private final ChallengeCache challenges = ChallengeCache.SHARED;
+
+  private final Optional<ServerCatalog> catalog;
+
+  private final Optional<Consumer<QueryResult>> resultListener;
+
+  public QueryResultHandler(Map<InetSocketAddress, QueryState> reconcileMap,
                             Map<InetSocketAddress, QueryResult> resultMap,
                             ChannelHandlerContext parentContext) {
+    this(reconcileMap, resultMap, parentContext, null);
+  }
+
+  /**
+   * @param catalog keeps the last server info of every server, may be null
+   */
+  public QueryResultHandler(Map<InetSocketAddress, QueryState> reconcileMap,
+                            Map<InetSocketAddress, QueryResult> resultMap,
+                            ChannelHandlerContext parentContext,
+                            ServerCatalog catalog) {
+    this(reconcileMap, resultMap,
+         (parentContext == null) ? null : new ResultCoalescer(parentContext),
+         catalog, null);
+  }
+
+  /**
+   * @param parentResults  passes finished results on to a parent channel,
+   *                       may be null
+   * @param resultListener called on the channel's event loop with every
+   *                       finished result, may be null
+   */
+  public QueryResultHandler(Map<InetSocketAddress, QueryState> reconcileMap,
+                            Map<InetSocketAddress, QueryResult> resultMap,
+                            ResultCoalescer parentResults,
+                            ServerCatalog catalog,
+                            Consumer<QueryResult> resultListener) {
     this.reconcileMap = reconcileMap;
     this.resultMap = resultMap;
-    this.parentContext = Optional.ofNullable(parentContext);
+    this.parentResults = Optional.ofNullable(parentResults);
+    this.catalog = Optional.ofNullable(catalog);
+    this.resultListener = Optional.ofNullable(resultListener);
   }
 
 
@@ -41,37 +79,68 @@ public class QueryResultHandler
                               ServerResponse response) throws Exception {
 
     InetSocketAddress addrKey = response.from();
-    //update or remove finished queries.
-    reconcileMap.computeIfPresent(addrKey, (notUsed, query) -> {
-      // record latency
-      response.latency(response.timeReceived() - query.startTime.inMillis());
-
-      logger.debug("latency {} - {}ms", addrKey, response.latency());
+    if (response instanceof ChallengeResponse) {
+      // a new challenge replaces the cached one for later queries
+      challenges.put(addrKey, ((ChallengeResponse) response).challenge());
+    }
 
-      ServerQuery updatedQuery = response.update(query);
-
-      if (updatedQuery.isFinished()) {
-        return null;  // returning null removes mapping from reconcileMap
+    //update or remove finished queries.
+    QueryState state = reconcileMap.get(addrKey);
+    if (state == null) {
+      // a late reply to a query that finished or was given up on, like the
+      // player request to a server whose info said it was empty. Its
+      // result was already passed on.
+      logger.debug("dropping late response from {}", addrKey);
+      return;
+    }
+
+    long rttNanos = state.elapsedNanos();
+    QueryMetrics.RTT.record(rttNanos);
+    response.latency(TimeUnit.NANOSECONDS.toMillis(rttNanos));
+
+    logger.debug("latency {} - {}ms", addrKey, response.latency());
+
+    // asked before the update, which takes on a new challenge
+    boolean resendsPipelined = response.resendsPipelined(state);
+    response.update(state);
+
+    if (state.isFinished()) {
+      QueryMetrics.QUERY_DURATION.record(state.totalNanos());
+      reconcileMap.remove(addrKey);
+    } else if (state.isPipelined()) {
+      // requests in flight are not repeated unless this response made them
+      // stale, and the info request never is as it needs no challenge.
+      if (resendsPipelined) {
+        ctx.writeAndFlush(state.view(QueryState.SERVER_INFO));
       }
+    } else {
       // resend this query so it can finish other requests.
-      ctx.writeAndFlush(updatedQuery);
-      return updatedQuery;
-    });
+      ctx.writeAndFlush(state.view());
+    }
 
     // update the query result.
     QueryResult newVal = response.mergeInto(resultMap);
 
+    if (response instanceof ServerInfo) {
+      catalog.ifPresent(c -> c.record((ServerInfo) response));
+    }
+
     // route to a parent channel when result is finished.
-    parentContext.filter(pctx -> !reconcileMap.containsKey(addrKey))
-                 .ifPresent(pctx -> {
-                   pctx.write(newVal);
+    parentResults.filter(parent -> !reconcileMap.containsKey(addrKey))
+                 .ifPresent(parent -> {
+                   parent.add(newVal);
                    resultMap.remove(addrKey);
                  });
+    resultListener.filter(listener -> !reconcileMap.containsKey(addrKey))
+                  .ifPresent(listener -> {
+                    listener.accept(newVal);
+                    resultMap.remove(addrKey);
+                  });
 
   }
 
   @Override
   public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
-    this.parentContext.ifPresent(ChannelHandlerContext::flush);
+    this.parentResults.ifPresent(ResultCoalescer::readComplete);
   }
 }
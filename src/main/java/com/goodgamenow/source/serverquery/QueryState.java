@@ -0,0 +1,207 @@
+package com.goodgamenow.source.serverquery;
+
+import com.goodgamenow.source.serverquery.ServerQuery.PlayerInfoRequest;
+import com.goodgamenow.source.serverquery.ServerQuery.ServerInfoRequest;
+import com.goodgamenow.source.serverquery.ServerQuery.ServerRulesRequest;
+import com.goodgamenow.source.serverquery.response.ServerResponse;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reconcile state of one in flight query, updated in place.
+ * <p>
+ * Where {@link ServerQuery} is rebuilt from functional parameters on every
+ * transition, this keeps the same state in a handful of primitive fields:
+ * which requests are still needed and whether they are pipelined as bit
+ * flags, the retries left, the challenge and when the query was last sent.
+ * Responses update it through {@link ServerResponse#update(QueryState)}
+ * and retries through {@link #retry()}, none of which allocate.
+ * {@link #view()} gives the immutable ServerQuery to write to the channel.
+ * <p>
+ * Owned by the query channel's event loop, which is the only thread that
+ * may touch it.
+ */
+@NotThreadSafe
+public final class QueryState {
+
+  public static final int SERVER_INFO = 1;
+
+  public static final int PLAYER_INFO = 1 << 1;
+
+  public static final int SERVER_RULES = 1 << 2;
+
+  public static final int PIPELINED = 1 << 3;
+
+  private static final int REQUESTS = SERVER_INFO | PLAYER_INFO | SERVER_RULES;
+
+  private final InetSocketAddress address;
+
+  private final String queryId;
+
+  private int flags;
+
+  private int retries;
+
+  private int challenge;
+
+  private long sentNanos;
+
+  private long startNanos;
+
+  // reused by views until the challenge changes
+  private ServerQuery.Challenge challengeView;
+
+  private QueryState(InetSocketAddress address, String queryId) {
+    this.address = address;
+    this.queryId = queryId;
+  }
+
+  /**
+   * @return the state of a query that was just sent.
+   */
+  public static QueryState of(ServerQuery query) {
+    QueryState state = new QueryState(query.address, query.queryId);
+    state.flags = (query.serverInfoRequest.isNeeded() ? SERVER_INFO : 0) |
+        (query.playerInfoRequest.isNeeded() ? PLAYER_INFO : 0) |
+        (query.serverRulesRequest.isNeeded() ? SERVER_RULES : 0) |
+        (query.pipelining.isPipelined() ? PIPELINED : 0);
+    state.retries = query.retries.remaining();
+    state.challenge(query.challenge.number());
+    state.sentNanos = System.nanoTime();
+    state.startNanos = state.sentNanos;
+    return state;
+  }
+
+  public InetSocketAddress address() {
+    return address;
+  }
+
+  /**
+   * @param flag one of SERVER_INFO, PLAYER_INFO or SERVER_RULES
+   * @return true if the request is still needed.
+   */
+  public boolean needs(int flag) {
+    return (flags & flag) != 0;
+  }
+
+  /**
+   * Marks a request as answered.
+   *
+   * @param flag one of SERVER_INFO, PLAYER_INFO or SERVER_RULES
+   */
+  public void done(int flag) {
+    flags &= ~flag;
+  }
+
+  public boolean isPipelined() {
+    return (flags & PIPELINED) != 0;
+  }
+
+  public boolean isFinished() {
+    return (flags & REQUESTS) == 0;
+  }
+
+  public int retries() {
+    return retries;
+  }
+
+  /**
+   * A response arrived, so the retries start over.
+   */
+  public void resetRetries() {
+    retries = ServerQuery.Retries.MAX_RETRIES.remaining();
+  }
+
+  /**
+   * Uses up a retry and seeds a missing challenge from the cache.
+   *
+   * @return false if there were no retries left.
+   */
+  boolean retry() {
+    if (retries < 1) {
+      return false;
+    }
+    retries--;
+    challenge(ChallengeCache.SHARED.seed(address, challenge));
+    return true;
+  }
+
+  public int challenge() {
+    return challenge;
+  }
+
+  public void challenge(int challenge) {
+    if (challengeView == null || this.challenge != challenge) {
+      this.challenge = challenge;
+      this.challengeView = () -> challenge;
+    }
+  }
+
+  /**
+   * Records that the query was written again.
+   */
+  void sent() {
+    sentNanos = System.nanoTime();
+  }
+
+  /**
+   * @return milliseconds since the query was last written.
+   */
+  public long elapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(elapsedNanos());
+  }
+
+  /**
+   * @return nanoseconds since the query was last written.
+   */
+  long elapsedNanos() {
+    return System.nanoTime() - sentNanos;
+  }
+
+  /**
+   * @return nanoseconds since the query was first written.
+   */
+  long totalNanos() {
+    return System.nanoTime() - startNanos;
+  }
+
+  /**
+   * @return an immutable query of every request still needed.
+   */
+  public ServerQuery view() {
+    return view(0);
+  }
+
+  /**
+   * @param skipped flags of needed requests to leave out of the view
+   * @return an immutable query of the requests still needed but skipped.
+   */
+  public ServerQuery view(int skipped) {
+    int needed = flags & ~skipped;
+    return new ServerQuery(
+        address,
+        queryId,
+        ((needed & SERVER_INFO) != 0) ? ServerInfoRequest.NEEDED
+                                      : ServerInfoRequest.NOT_NEEDED,
+        ((needed & PLAYER_INFO) != 0) ? PlayerInfoRequest.NEEDED
+                                      : PlayerInfoRequest.NOT_NEEDED,
+        ((needed & SERVER_RULES) != 0) ? ServerRulesRequest.NEEDED
+                                       : ServerRulesRequest.NOT_NEEDED,
+        ServerQuery.Retries.of(retries),
+        challengeView,
+        isPipelined() ? ServerQuery.Pipelining.PIPELINED
+                      : ServerQuery.Pipelining.SEQUENTIAL);
+  }
+
+  @Override
+  public String toString() {
+    return "QueryState{" +
+        "address=" + address +
+        ", flags=" + Integer.toBinaryString(flags) +
+        ", retries=" + retries +
+        ", challenge=" + challenge +
+        '}';
+  }
+}
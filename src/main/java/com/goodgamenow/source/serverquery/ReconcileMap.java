@@ -0,0 +1,189 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.net.InetSocketAddress;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * The in flight queries of one channel keyed by server address.
+ * <p>
+ * IPv4 servers, which is every server the master server returns, are kept
+ * in an open addressing map keyed by the packed address, so a lookup hashes
+ * a long and an entry costs a slot in two arrays rather than a node, a
+ * boxed key and an InetSocketAddress. Anything else falls back to a plain
+ * HashMap.
+ * <p>
+ * Only the channel's event loop may modify the map. {@link #size()} and
+ * {@link #isEmpty()} can be read from any thread, and every change in size
+ * is added to {@link QueryMetrics#RECONCILE_ENTRIES}.
+ *
+ * @param <V> what is kept for each query
+ */
+@NotThreadSafe
+class ReconcileMap<V> extends AbstractMap<InetSocketAddress, V> {
+
+  // LongObjectHashMap indexes by the low bits of key ^ key >>> 32, which for
+  // packed addresses are mostly the port, so keys are scrambled by an odd
+  // multiplier first. Multiplying by its inverse gets the address back. No
+  // 48 bit address scrambles to NOT_PACKED.
+  private static final long SCRAMBLE = 0x9E3779B97F4A7C15L;
+
+  private static final long UNSCRAMBLE = 0xF1DE83E19937733DL;
+
+  private final LongObjectMap<V> packed;
+
+  private final Map<InetSocketAddress, V> others = new HashMap<>();
+
+  private volatile int size;
+
+  ReconcileMap() {
+    this(LongObjectHashMap.DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity expected number of in flight queries
+   */
+  ReconcileMap(int capacity) {
+    this.packed = new LongObjectHashMap<>(capacity);
+  }
+
+  @Override
+  public V get(Object key) {
+    if (!(key instanceof InetSocketAddress)) {
+      return null;
+    }
+    InetSocketAddress address = (InetSocketAddress) key;
+    long packedKey = key(address);
+    return (packedKey == PackedAddresses.NOT_PACKED) ? others.get(address)
+                                                      : packed.get(packedKey);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public V put(InetSocketAddress address, V value) {
+    long packedKey = key(address);
+    V previous = (packedKey == PackedAddresses.NOT_PACKED)
+                           ? others.put(address, value)
+                           : packed.put(packedKey, value);
+    updateSize();
+    return previous;
+  }
+
+  @Override
+  public V remove(Object key) {
+    if (!(key instanceof InetSocketAddress)) {
+      return null;
+    }
+    InetSocketAddress address = (InetSocketAddress) key;
+    long packedKey = key(address);
+    V previous = (packedKey == PackedAddresses.NOT_PACKED)
+                           ? others.remove(address)
+                           : packed.remove(packedKey);
+    updateSize();
+    return previous;
+  }
+
+  @Override
+  public V putIfAbsent(InetSocketAddress address, V value) {
+    long packedKey = key(address);
+    if (packedKey == PackedAddresses.NOT_PACKED) {
+      V previous = others.putIfAbsent(address, value);
+      updateSize();
+      return previous;
+    }
+    V previous = packed.get(packedKey);
+    if (previous == null) {
+      packed.put(packedKey, value);
+      updateSize();
+    }
+    return previous;
+  }
+
+  /**
+   * Same as {@link Map#computeIfPresent} but packs the key only once.
+   */
+  @Override
+  public V computeIfPresent(
+      InetSocketAddress address,
+      BiFunction<? super InetSocketAddress, ? super V, ? extends V> remapping) {
+    long packedKey = key(address);
+    if (packedKey == PackedAddresses.NOT_PACKED) {
+      V result = others.computeIfPresent(address, remapping);
+      updateSize();
+      return result;
+    }
+    V value = packed.get(packedKey);
+    if (value == null) {
+      return null;
+    }
+    V result = remapping.apply(address, value);
+    if (result == null) {
+      packed.remove(packedKey);
+    } else {
+      packed.put(packedKey, result);
+    }
+    updateSize();
+    return result;
+  }
+
+  @Override
+  public void clear() {
+    packed.clear();
+    others.clear();
+    updateSize();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the scrambled packed address, or NOT_PACKED.
+   */
+  private static long key(InetSocketAddress address) {
+    long packedAddress = PackedAddresses.pack(address);
+    return (packedAddress == PackedAddresses.NOT_PACKED)
+           ? PackedAddresses.NOT_PACKED
+           : packedAddress * SCRAMBLE;
+  }
+
+  private void updateSize() {
+    int updated = packed.size() + others.size();
+    if (updated != size) {
+      QueryMetrics.RECONCILE_ENTRIES.add(updated - size);
+      size = updated;
+    }
+  }
+
+  /**
+   * @return a copy of the entries, for reporting rather than the hot path.
+   */
+  @Override
+  public Set<Entry<InetSocketAddress, V>> entrySet() {
+    Set<Entry<InetSocketAddress, V>> entries =
+        new LinkedHashSet<>(others.entrySet());
+    for (LongObjectMap.PrimitiveEntry<V> entry : packed.entries()) {
+      entries.add(new SimpleImmutableEntry<>(
+          PackedAddresses.unpack(entry.key() * UNSCRAMBLE), entry.value()));
+    }
+    return entries;
+  }
+}
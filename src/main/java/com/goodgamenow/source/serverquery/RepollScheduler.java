@@ -0,0 +1,319 @@
+package com.goodgamenow.source.serverquery;
+
+import com.goodgamenow.source.serverquery.response.QueryResult;
+import com.goodgamenow.source.serverquery.response.ServerInfo;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps polling known servers for their info, each at its own pace.
+ * <p>
+ * A server whose player count or map changed since its last answer is
+ * polled again after the shortest interval. A populated server that did not
+ * change waits twice as long each time, up to four shortest intervals, and
+ * an empty one backs off the same way up to the longest interval. A poll
+ * still unanswered when the next one is due counts as a miss, which doubles
+ * the interval too, and servers that miss too many polls in a row are
+ * dropped. Every interval is jittered so servers added together drift
+ * apart.
+ * <p>
+ * All polls share one budget of packets per second. A poll that finds the
+ * budget spent waits until it refills, so a large catalog is polled slower
+ * rather than flooding the network.
+ * <p>
+ * The state of every server is only touched on the scheduler's event loop;
+ * timers and answers hand off to it.
+ */
+@ThreadSafe
+public final class RepollScheduler implements Closeable {
+
+  /**
+   * Shortest time between polls of a server, set by REPOLL_MIN_MILLIS.
+   */
+  static final long MIN_INTERVAL_MILLIS =
+      Long.getLong("REPOLL_MIN_MILLIS", 10_000L);
+
+  /**
+   * Longest time between polls of a server, set by REPOLL_MAX_MILLIS.
+   */
+  static final long MAX_INTERVAL_MILLIS =
+      Long.getLong("REPOLL_MAX_MILLIS", 600_000L);
+
+  /**
+   * Polls a server may miss in a row before it is dropped, set by
+   * REPOLL_MAX_MISSES.
+   */
+  static final int MAX_MISSES = Integer.getInteger("REPOLL_MAX_MISSES", 5);
+
+  /**
+   * Packets per second all polls together may send, set by REPOLL_RATE.
+   */
+  static final long RATE = Long.getLong("REPOLL_RATE", 500L);
+
+  static final String QUERY_ID = "repoll";
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final ServerQuery TEMPLATE =
+      new ServerQuery(new InetSocketAddress("127.0.0.1", 0),
+                      QUERY_ID,
+                      ServerQuery.ServerInfoRequest.NEEDED,
+                      ServerQuery.PlayerInfoRequest.NOT_NEEDED,
+                      ServerQuery.ServerRulesRequest.NOT_NEEDED,
+                      ServerQuery.Retries.MAX_RETRIES,
+                      ServerQuery.Challenge.RESET,
+                      ServerQuery.Pipelining.SEQUENTIAL);
+
+  private final EventLoop eventLoop;
+
+  private final Consumer<ServerQuery> send;
+
+  private final Timer timer;
+
+  private final TokenBucket budget;
+
+  private final long minMillis;
+
+  private final long maxMillis;
+
+  private final int maxMisses;
+
+  // event loop only
+  private final LongObjectMap<Server> servers = new LongObjectHashMap<>();
+
+  private final ServerQueryShards shards;
+
+  private volatile boolean closed;
+
+  private RepollScheduler(EventLoop eventLoop, ServerQueryShards shards) {
+    this(eventLoop, shards::writeAndFlush, WheelTimer.INSTANCE,
+         new TokenBucket(RATE, (int) Math.max(RATE / 10, 1)),
+         MIN_INTERVAL_MILLIS, MAX_INTERVAL_MILLIS, MAX_MISSES, shards);
+  }
+
+  /**
+   * @param send      sends a poll
+   * @param timer     runs the poll deadlines
+   * @param budget    packets all polls together may send
+   * @param minMillis shortest time between polls of a server
+   * @param maxMillis longest time between polls of a server
+   * @param maxMisses polls a server may miss in a row
+   */
+  RepollScheduler(EventLoop eventLoop,
+                  Consumer<ServerQuery> send,
+                  Timer timer,
+                  TokenBucket budget,
+                  long minMillis,
+                  long maxMillis,
+                  int maxMisses) {
+    this(eventLoop, send, timer, budget, minMillis, maxMillis, maxMisses,
+         null);
+  }
+
+  private RepollScheduler(EventLoop eventLoop,
+                          Consumer<ServerQuery> send,
+                          Timer timer,
+                          TokenBucket budget,
+                          long minMillis,
+                          long maxMillis,
+                          int maxMisses,
+                          ServerQueryShards shards) {
+    if (minMillis < 1 || maxMillis < minMillis) {
+      throw new IllegalArgumentException("Invalid repoll intervals.");
+    }
+    this.eventLoop = eventLoop;
+    this.send = send;
+    this.timer = timer;
+    this.budget = budget;
+    this.minMillis = minMillis;
+    this.maxMillis = maxMillis;
+    this.maxMisses = maxMisses;
+    this.shards = shards;
+  }
+
+  /**
+   * Binds a query channel on one event loop of {@code group} for the polls.
+   *
+   * @param catalog records every answer, may be null
+   * @throws InterruptedException if interrupted while binding.
+   */
+  public static RepollScheduler start(EventLoopGroup group,
+                                      ServerCatalog catalog)
+      throws InterruptedException {
+    EventLoop eventLoop = group.next();
+    RepollScheduler[] scheduler = new RepollScheduler[1];
+    ServerQueryShards shards =
+        new ServerQueryBootstrap(eventLoop)
+            .catalog(catalog)
+            .resultListener(result -> scheduler[0].answered(result))
+            .bindShards(1);
+    scheduler[0] = new RepollScheduler(eventLoop, shards);
+    return scheduler[0];
+  }
+
+  /**
+   * Starts polling {@code address} unless it is polled already. The first
+   * poll is spread over the shortest interval.
+   */
+  public void add(InetSocketAddress address) {
+    long packed = PackedAddresses.pack(address);
+    if (packed == PackedAddresses.NOT_PACKED || closed) {
+      return;
+    }
+    eventLoop.execute(() -> {
+      if (closed || servers.containsKey(packed)) {
+        return;
+      }
+      Server server = new Server(packed);
+      servers.put(packed, server);
+      schedule(server, ThreadLocalRandom.current().nextLong(minMillis),
+               TimeUnit.MILLISECONDS);
+    });
+  }
+
+  public void addAll(Collection<InetSocketAddress> addresses) {
+    addresses.forEach(this::add);
+  }
+
+  /**
+   * Stops polling {@code address}.
+   */
+  public void remove(InetSocketAddress address) {
+    long packed = PackedAddresses.pack(address);
+    eventLoop.execute(() -> forget(servers.get(packed)));
+  }
+
+  /**
+   * @return number of servers being polled, only exact on the event loop.
+   */
+  public int size() {
+    return servers.size();
+  }
+
+  /**
+   * Takes in the answer to a poll. Answers of servers no longer polled are
+   * ignored.
+   */
+  void answered(QueryResult result) {
+    result.getServerInfo().ifPresent(
+        info -> eventLoop.execute(() -> answered(info)));
+  }
+
+  private void answered(ServerInfo info) {
+    Server server = servers.get(PackedAddresses.pack(info.from()));
+    if (server == null || server.answered) {
+      return;
+    }
+    int players = Byte.toUnsignedInt(info.getPlayers());
+    boolean changed = players != server.players ||
+        !Objects.equals(info.getMap(), server.map);
+    server.answered = true;
+    server.misses = 0;
+    server.players = players;
+    server.map = info.getMap();
+
+    long ceiling = (server.players > 0) ? Math.min(4 * minMillis, maxMillis)
+                                        : maxMillis;
+    server.intervalMillis = changed ? minMillis
+                                    : Math.min(2 * server.intervalMillis,
+                                               ceiling);
+    server.deadline.cancel();
+    schedule(server, jittered(server.intervalMillis), TimeUnit.MILLISECONDS);
+  }
+
+  private void poll(Server server) {
+    if (closed || servers.get(server.address) != server) {
+      return;
+    }
+    if (!budget.tryAcquire(1)) {
+      schedule(server, budget.nanosUntilAvailable(1), TimeUnit.NANOSECONDS);
+      return;
+    }
+    if (!server.answered) {
+      if (++server.misses > maxMisses) {
+        logger.debug("Dropping {} after {} unanswered polls",
+                     PackedAddresses.format(server.address), maxMisses);
+        forget(server);
+        return;
+      }
+      server.intervalMillis = Math.min(2 * server.intervalMillis, maxMillis);
+    }
+    server.answered = false;
+    send.accept(ServerQuery.createFromTemplate(
+        PackedAddresses.unpack(server.address), TEMPLATE));
+    // becomes a miss unless the answer reschedules it
+    schedule(server, jittered(server.intervalMillis), TimeUnit.MILLISECONDS);
+  }
+
+  private void schedule(Server server, long delay, TimeUnit unit) {
+    server.deadline = timer.newTimeout(
+        timeout -> eventLoop.execute(() -> poll(server)), delay, unit);
+  }
+
+  private long jittered(long millis) {
+    long jitter = millis / 10;
+    return millis - jitter +
+        ThreadLocalRandom.current().nextLong(2 * jitter + 1);
+  }
+
+  private void forget(Server server) {
+    if (server != null && servers.remove(server.address) != null) {
+      server.deadline.cancel();
+    }
+  }
+
+  /**
+   * Stops every poll and closes the query channel.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    eventLoop.execute(() -> {
+      servers.values().forEach(server -> server.deadline.cancel());
+      servers.clear();
+    });
+    if (shards != null) {
+      shards.close();
+    }
+  }
+
+  /**
+   * Polling state of one server.
+   */
+  private final class Server {
+
+    final long address;
+
+    long intervalMillis = minMillis;
+
+    // whether the last poll was answered, nothing was asked before the first
+    boolean answered = true;
+
+    int misses;
+
+    int players = -1;
+
+    String map;
+
+    Timeout deadline;
+
+    Server(long address) {
+      this.address = address;
+    }
+  }
+}
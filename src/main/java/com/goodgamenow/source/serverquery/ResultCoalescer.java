@@ -0,0 +1,158 @@
+package com.goodgamenow.source.serverquery;
+
+import com.goodgamenow.source.serverquery.response.QueryResult;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.ScheduledFuture;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Gathers finished results on their way to a parent channel and flushes
+ * them together.
+ * <p>
+ * Results from every query channel are collected on the parent's event
+ * loop, and the parent is flushed once {@link Limits#maxResults} are
+ * waiting or the first of them has waited {@link Limits#lingerMillis},
+ * whichever comes first. A parent that packs what it is written between
+ * flushes into one frame then sends one frame per batch rather than one
+ * per server.
+ * <p>
+ * With coalescing off, results are written as they finish and the parent
+ * is flushed at the end of every read on a query channel, or right away
+ * for results {@link #accept accepted} from elsewhere.
+ */
+@ThreadSafe
+public final class ResultCoalescer implements Consumer<QueryResult> {
+
+  /**
+   * Default limits, set by COALESCE_MAX_RESULTS and COALESCE_LINGER_MILLIS.
+   * A linger of zero turns coalescing off.
+   */
+  public static final Limits DEFAULT_LIMITS =
+      new Limits(Integer.getInteger("COALESCE_MAX_RESULTS", 256),
+                 Long.getLong("COALESCE_LINGER_MILLIS", 20L));
+
+  private final ChannelHandlerContext parent;
+
+  private volatile Limits limits;
+
+  // parent's event loop only
+  private final List<QueryResult> pending = new ArrayList<>();
+
+  private ScheduledFuture<?> linger;
+
+  public ResultCoalescer(ChannelHandlerContext parent) {
+    this(parent, DEFAULT_LIMITS);
+  }
+
+  public ResultCoalescer(ChannelHandlerContext parent, Limits limits) {
+    this.parent = parent;
+    this.limits = limits;
+  }
+
+  /**
+   * Applies to results finished from now on.
+   */
+  public void limits(Limits limits) {
+    this.limits = limits;
+  }
+
+  public Limits limits() {
+    return limits;
+  }
+
+  /**
+   * Passes on a finished result.
+   */
+  void add(QueryResult result) {
+    if (!limits.isCoalescing()) {
+      parent.write(result);
+      return;
+    }
+    if (parent.executor().inEventLoop()) {
+      append(result);
+    } else {
+      parent.executor().execute(() -> append(result));
+    }
+  }
+
+  /**
+   * Passes on a result that finished outside the parent's own query
+   * channels, from a {@link SharedQueryEngine}, where no end of a read
+   * follows to flush it.
+   */
+  @Override
+  public void accept(QueryResult result) {
+    add(result);
+    readComplete();
+  }
+
+  /**
+   * Called at the end of a read on a query channel.
+   */
+  void readComplete() {
+    if (!limits.isCoalescing()) {
+      parent.flush();
+    }
+  }
+
+  private void append(QueryResult result) {
+    pending.add(result);
+    Limits current = limits;
+    if (pending.size() >= current.maxResults || !current.isCoalescing()) {
+      flushPending();
+    } else if (linger == null) {
+      linger = parent.executor().schedule(this::flushPending,
+                                          current.lingerMillis,
+                                          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void flushPending() {
+    if (linger != null) {
+      linger.cancel(false);
+      linger = null;
+    }
+    if (pending.isEmpty()) {
+      return;
+    }
+    pending.forEach(parent::write);
+    pending.clear();
+    parent.flush();
+  }
+
+  /**
+   * How many results may wait for how long before they are flushed.
+   */
+  @Immutable
+  public static final class Limits {
+
+    public final int maxResults;
+
+    public final long lingerMillis;
+
+    /**
+     * @param maxResults   results that are flushed together at most
+     * @param lingerMillis longest a result waits for others, zero to flush
+     *                     results as they come
+     */
+    public Limits(int maxResults, long lingerMillis) {
+      this.maxResults = Math.max(maxResults, 1);
+      this.lingerMillis = Math.max(lingerMillis, 0L);
+    }
+
+    boolean isCoalescing() {
+      return maxResults > 1 && lingerMillis > 0;
+    }
+
+    @Override
+    public String toString() {
+      return "Limits{" + maxResults + " results, " + lingerMillis + "ms}";
+    }
+  }
+}
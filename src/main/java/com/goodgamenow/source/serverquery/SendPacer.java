@@ -0,0 +1,144 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces outgoing queries to the rate of a token bucket.
+ * <p>
+ * A query is written straight through while the bucket has a permit for
+ * each datagram it turns into. Otherwise it waits in a queue, in order,
+ * and a task scheduled on the event loop for when the bucket will have
+ * refilled writes as many queued queries as it can. Nothing ever blocks
+ * the event loop. Placed in front of the pump so deadlines start when a
+ * query is actually sent.
+ */
+class SendPacer extends ChannelOutboundHandlerAdapter {
+
+  static final long DEFAULT_RATE = Long.getLong("SEND_RATE", 2000L);
+
+  static final int DEFAULT_BURST = Integer.getInteger("SEND_BURST", 64);
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private final TokenBucket bucket;
+
+  private final Queue<PendingWrite> queue = new ArrayDeque<>();
+
+  // written on the event loop, read by anyone reporting queue depth
+  private volatile int queueDepth;
+
+  private boolean drainScheduled;
+
+  /**
+   * @param bucket permits for each datagram sent, may be shared
+   */
+  SendPacer(TokenBucket bucket) {
+    this.bucket = bucket;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx,
+                    Object msg,
+                    ChannelPromise promise) throws Exception {
+    if (!(msg instanceof ServerQuery)) {
+      ctx.write(msg, promise);
+      return;
+    }
+    ServerQuery query = (ServerQuery) msg;
+    if (queue.isEmpty() && bucket.tryAcquire(datagrams(query))) {
+      ctx.write(query, promise);
+      return;
+    }
+    queue.add(new PendingWrite(query, promise));
+    queueDepth = queue.size();
+    scheduleDrain(ctx);
+  }
+
+  private void scheduleDrain(ChannelHandlerContext ctx) {
+    if (drainScheduled) {
+      return;
+    }
+    drainScheduled = true;
+    long delay =
+        Math.max(1, bucket.nanosUntilAvailable(datagrams(queue.peek().query)));
+    ctx.executor().schedule(() -> drain(ctx), delay, TimeUnit.NANOSECONDS);
+  }
+
+  private void drain(ChannelHandlerContext ctx) {
+    drainScheduled = false;
+    int written = 0;
+    PendingWrite next;
+    while ((next = queue.peek()) != null &&
+        bucket.tryAcquire(datagrams(next.query))) {
+      queue.poll();
+      ctx.write(next.query, next.promise);
+      written++;
+    }
+    queueDepth = queue.size();
+    if (written > 0) {
+      ctx.flush();
+    }
+    logger.trace("Paced {} queries, {} still queued", written, queueDepth);
+    if (!queue.isEmpty()) {
+      scheduleDrain(ctx);
+    }
+  }
+
+  /**
+   * @return datagrams a query is encoded into.
+   */
+  private static int datagrams(ServerQuery query) {
+    if (!query.pipelining.isPipelined()) {
+      return 1;
+    }
+    int count = 0;
+    if (query.serverInfoRequest.isNeeded()) {
+      count++;
+    }
+    if (query.playerInfoRequest.isNeeded()) {
+      count++;
+    }
+    if (query.serverRulesRequest.isNeeded()) {
+      count++;
+    }
+    return Math.max(1, count);
+  }
+
+  /**
+   * @return number of queries waiting for a permit.
+   */
+  int queueDepth() {
+    return queueDepth;
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    PendingWrite pending;
+    while ((pending = queue.poll()) != null) {
+      pending.promise.tryFailure(new ClosedChannelException());
+    }
+    queueDepth = 0;
+    super.handlerRemoved(ctx);
+  }
+
+  private static final class PendingWrite {
+
+    private final ServerQuery query;
+
+    private final ChannelPromise promise;
+
+    private PendingWrite(ServerQuery query, ChannelPromise promise) {
+      this.query = query;
+      this.promise = promise;
+    }
+  }
+}
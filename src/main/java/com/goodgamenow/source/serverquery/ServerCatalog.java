@@ -0,0 +1,352 @@
+package com.goodgamenow.source.serverquery;
+
+import com.goodgamenow.source.serverquery.response.FlyweightServerInfo;
+import com.goodgamenow.source.serverquery.response.QueryResult;
+import com.goodgamenow.source.serverquery.response.ServerInfo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Remembers every server that answered an info request, along with its last
+ * A2S_INFO payload and latency, in a file that outlives the process.
+ * <p>
+ * The file is a log of records appended as info responses arrive. A record
+ * is its length, the packed address, when the response arrived, its latency
+ * and the payload exactly as {@link ServerInfo#encode} writes it. On open
+ * the file is memory mapped and read once, later records of a server
+ * replacing earlier ones, and a torn record left at the end by a crash is
+ * cut off. Restored servers come back as {@link FlyweightServerInfo}s over
+ * the stored payload.
+ * <p>
+ * Records are appended by a writer thread, so event loops never wait on the
+ * disk, and whatever queued up since the last write goes out in one
+ * gathering write. Once the log holds more than twice as many records as
+ * servers it is rewritten with one record per server.
+ */
+@ThreadSafe
+public final class ServerCatalog implements Closeable {
+
+  /**
+   * Records a log may hold before it is worth compacting, set by
+   * CATALOG_COMPACT_MIN.
+   */
+  static final int COMPACT_MIN_RECORDS =
+      Integer.getInteger("CATALOG_COMPACT_MIN", 4096);
+
+  private static final Logger logger = LogManager.getLogger();
+
+  private static final int MAGIC = 0x53534331; // "SSC1"
+
+  // address, time received and latency after the length
+  private static final int RECORD_HEADER_WIDTH = 8 + 8 + 4;
+
+  private static final int MAX_RECORD_WIDTH = RECORD_HEADER_WIDTH + 1400;
+
+  private final Path path;
+
+  // latest record of each server, guarded by itself
+  private final LongObjectMap<byte[]> records;
+
+  private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+
+  private final AtomicBoolean draining = new AtomicBoolean();
+
+  private final ExecutorService writer;
+
+  // writer thread only
+  private FileChannel log;
+
+  private long logRecords;
+
+  private ServerCatalog(Path path,
+                        LongObjectMap<byte[]> records,
+                        FileChannel log,
+                        long logRecords) {
+    this.path = path;
+    this.records = records;
+    this.log = log;
+    this.logRecords = logRecords;
+    this.writer = Executors.newSingleThreadExecutor(
+        new DefaultThreadFactory("serverquery-catalog", true));
+  }
+
+  /**
+   * Reads the catalog at {@code path}, creating an empty one if there is
+   * none.
+   *
+   * @exception IOException if the file can't be read or isn't a catalog.
+   */
+  public static ServerCatalog open(Path path) throws IOException {
+    LongObjectMap<byte[]> records = new LongObjectHashMap<>();
+    long logRecords = 0;
+    long end = 0;
+
+    FileChannel log = FileChannel.open(path, StandardOpenOption.CREATE,
+                                       StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+    try {
+      if (log.size() >= Integer.BYTES) {
+        MappedByteBuffer mapped =
+            log.map(FileChannel.MapMode.READ_ONLY, 0, log.size());
+        if (mapped.getInt() != MAGIC) {
+          throw new IOException(path + " is not a server catalog.");
+        }
+        while (mapped.remaining() >= Integer.BYTES) {
+          int length = mapped.getInt(mapped.position());
+          if (length < RECORD_HEADER_WIDTH || length > MAX_RECORD_WIDTH ||
+              length > mapped.remaining() - Integer.BYTES) {
+            break;
+          }
+          byte[] record = new byte[Integer.BYTES + length];
+          mapped.get(record);
+          records.put(ByteBuffer.wrap(record).getLong(Integer.BYTES), record);
+          logRecords++;
+        }
+        end = mapped.position();
+      }
+      if (end == 0) {
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC);
+        magic.flip();
+        log.write(magic, 0);
+        end = Integer.BYTES;
+      } else if (end < log.size()) {
+        logger.warn("Cutting off torn record at {} of {}", end, path);
+      }
+      log.truncate(end);
+      log.position(end);
+    } catch (IOException | RuntimeException ex) {
+      log.close();
+      throw ex;
+    }
+
+    logger.info("Server catalog {} holds {} servers", path, records.size());
+    ServerCatalog catalog = new ServerCatalog(path, records, log, logRecords);
+    catalog.writer.execute(catalog::compactIfWorthIt);
+    return catalog;
+  }
+
+  /**
+   * Keeps the server info and its latency as the last known state of the
+   * server. Servers that can't be packed, which the master server never
+   * returns, are ignored.
+   */
+  public void record(ServerInfo info) {
+    long address = PackedAddresses.pack(info.from());
+    if (address == PackedAddresses.NOT_PACKED) {
+      return;
+    }
+    ByteBuf buf = Unpooled.buffer(MAX_RECORD_WIDTH);
+    try {
+      buf.writeInt(0)
+         .writeLong(address)
+         .writeLong(info.timeReceived())
+         .writeInt((int) Math.min(info.latency(), Integer.MAX_VALUE));
+      info.encode(buf);
+      buf.setInt(0, buf.readableBytes() - Integer.BYTES);
+      if (buf.readableBytes() > Integer.BYTES + MAX_RECORD_WIDTH) {
+        return;
+      }
+      byte[] record = new byte[buf.readableBytes()];
+      buf.readBytes(record);
+
+      synchronized (records) {
+        records.put(address, record);
+      }
+      pending.add(record);
+      if (draining.compareAndSet(false, true)) {
+        writer.execute(this::drain);
+      }
+    } finally {
+      buf.release();
+    }
+  }
+
+  /**
+   * @return the last known state of the server, if it ever answered.
+   */
+  public Optional<QueryResult> lastKnown(InetSocketAddress address) {
+    long packed = PackedAddresses.pack(address);
+    return (packed == PackedAddresses.NOT_PACKED) ? Optional.empty()
+                                                  : lastKnown(packed);
+  }
+
+  /**
+   * @param addresses packed addresses, as a master listing gives them
+   * @return the last known state of every server that ever answered.
+   */
+  public List<QueryResult> lastKnown(long[] addresses) {
+    List<QueryResult> results = new ArrayList<>();
+    for (long address : addresses) {
+      lastKnown(address).ifPresent(results::add);
+    }
+    return results;
+  }
+
+  private Optional<QueryResult> lastKnown(long address) {
+    byte[] record;
+    synchronized (records) {
+      record = records.get(address);
+    }
+    if (record == null) {
+      return Optional.empty();
+    }
+    ByteBuffer fields = ByteBuffer.wrap(record, Integer.BYTES,
+                                        RECORD_HEADER_WIDTH);
+    fields.getLong(); // address
+    long timeReceived = fields.getLong();
+    int latency = fields.getInt();
+    byte[] payload = Arrays.copyOfRange(
+        record, Integer.BYTES + RECORD_HEADER_WIDTH, record.length);
+    try {
+      ServerInfo info = new FlyweightServerInfo(
+          PackedAddresses.unpack(address), payload, timeReceived);
+      info.latency(latency);
+      return Optional.of(new QueryResult(info));
+    } catch (IllegalStateException ex) {
+      logger.debug("Ignoring corrupt catalog record of {}",
+                   PackedAddresses.format(address), ex);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @return every server in the catalog.
+   */
+  public List<InetSocketAddress> addresses() {
+    long[] packed;
+    synchronized (records) {
+      packed = records.keySet().stream().mapToLong(Long::longValue).toArray();
+    }
+    List<InetSocketAddress> addresses = new ArrayList<>(packed.length);
+    for (long address : packed) {
+      addresses.add(PackedAddresses.unpack(address));
+    }
+    return addresses;
+  }
+
+  public int size() {
+    synchronized (records) {
+      return records.size();
+    }
+  }
+
+  /**
+   * @return a future done once everything recorded so far is written.
+   */
+  Future<?> sync() {
+    return writer.submit(this::drain);
+  }
+
+  private void drain() {
+    draining.set(false);
+    List<ByteBuffer> buffers = new ArrayList<>();
+    for (byte[] record = pending.poll(); record != null;
+         record = pending.poll()) {
+      buffers.add(ByteBuffer.wrap(record));
+    }
+    if (buffers.isEmpty()) {
+      return;
+    }
+    try {
+      ByteBuffer[] batch = buffers.toArray(new ByteBuffer[buffers.size()]);
+      long remaining = buffers.stream().mapToLong(ByteBuffer::remaining).sum();
+      while (remaining > 0) {
+        remaining -= log.write(batch);
+      }
+      logRecords += batch.length;
+      compactIfWorthIt();
+    } catch (IOException ex) {
+      logger.warn("Could not append to server catalog {}", path, ex);
+    }
+  }
+
+  /**
+   * Rewrites the log with the latest record of each server once most of it
+   * is outdated.
+   */
+  private void compactIfWorthIt() {
+    List<byte[]> latest;
+    synchronized (records) {
+      if (logRecords < COMPACT_MIN_RECORDS ||
+          logRecords <= 2L * records.size()) {
+        return;
+      }
+      latest = new ArrayList<>(records.values());
+    }
+    Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel out = FileChannel.open(
+        compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC);
+      magic.flip();
+      out.write(magic);
+      for (byte[] record : latest) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+      }
+      out.force(false);
+    } catch (IOException ex) {
+      logger.warn("Could not compact server catalog {}", path, ex);
+      return;
+    }
+    try {
+      log.close();
+      Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+      log = FileChannel.open(path, StandardOpenOption.WRITE,
+                             StandardOpenOption.APPEND);
+      logger.debug("Compacted server catalog {} from {} to {} records",
+                   path, logRecords, latest.size());
+      logRecords = latest.size();
+    } catch (IOException ex) {
+      throw new IllegalStateException("Server catalog " + path + " lost.",
+                                      ex);
+    }
+  }
+
+  /**
+   * Writes what is still queued and closes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    writer.execute(this::drain);
+    writer.shutdown();
+    try {
+      writer.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      log.close();
+    }
+  }
+}
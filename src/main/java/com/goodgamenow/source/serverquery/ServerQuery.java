@@ -51,6 +51,8 @@ public class ServerQuery {
 
   public final Challenge challenge;
 
+  public final Pipelining pipelining;
+
   public final StartTime startTime;
 
 
@@ -100,6 +102,31 @@ public class ServerQuery {
                      ServerRulesRequest serverRulesNeeded,
                      Retries retries,
                      Challenge challenge) {
+    this(address, queryId, serverInfoNeeded, playerInfoNeeded,
+         serverRulesNeeded, retries, challenge, Pipelining.SEQUENTIAL);
+  }
+
+  /**
+   * Constructor to create a fully detailed query that may pipeline its
+   * requests.
+   *
+   * @param address           socket address
+   * @param queryId           A user supplied id for grouping queries
+   * @param serverInfoNeeded  if a server info request is attempted
+   * @param playerInfoNeeded  if a player info request is attempted
+   * @param serverRulesNeeded if server environment variables are requested
+   * @param retries           number of retries left.
+   * @param challenge         the challenge number assigned from the server
+   * @param pipelining        whether needed requests are sent together
+   */
+  public ServerQuery(InetSocketAddress address,
+                     String queryId,
+                     ServerInfoRequest serverInfoNeeded,
+                     PlayerInfoRequest playerInfoNeeded,
+                     ServerRulesRequest serverRulesNeeded,
+                     Retries retries,
+                     Challenge challenge,
+                     Pipelining pipelining) {
     Objects.requireNonNull(address, "Socket address can't be null");
     this.address = address;
     this.queryId = queryId;
@@ -108,9 +135,15 @@ public class ServerQuery {
     this.serverRulesRequest = serverRulesNeeded;
     this.retries = retries;
     this.challenge = challenge;
+    this.pipelining = pipelining;
     this.startTime = StartTime.now();  // all query timers start at creation
   }
 
+  /**
+   * Creates a query for {@code address} with the options of
+   * {@code template}. A template without a challenge picks up the one the
+   * server last handed out, if it is still cached.
+   */
   public static ServerQuery createFromTemplate(InetSocketAddress address,
                                                ServerQuery template) {
     return createFromTemplate(address, template, template.queryId);
@@ -125,7 +158,9 @@ public class ServerQuery {
                            template.playerInfoRequest,
                            template.serverRulesRequest,
                            template.retries,
-                           template.challenge);
+                           ChallengeCache.SHARED.seed(address,
+                                                      template.challenge),
+                           template.pipelining);
   }
 
   @Override
@@ -155,6 +190,7 @@ public class ServerQuery {
         ", serverRulesRequest=" + serverRulesRequest +
         ", retries=" + retries +
         ", challenge=" + challenge +
+        ", pipelining=" + pipelining +
         ", startTime=" + startTime +
         '}';
   }
@@ -219,13 +255,26 @@ public class ServerQuery {
     ServerRulesRequest NOT_NEEDED = () -> false;
   }
 
+  // shared retry counts, indexed by the number remaining
+  private static final Retries[] RETRY_COUNTS =
+      {() -> 0, () -> 1, () -> 2, Retries.MAX_RETRIES};
+
   @FunctionalInterface
   public interface Retries {
 
     Retries MAX_RETRIES = () -> 3;
 
+    /**
+     * @return a shared instance for counts from none up to MAX_RETRIES.
+     */
+    static Retries of(int remaining) {
+      return (remaining >= 0 && remaining < RETRY_COUNTS.length)
+             ? RETRY_COUNTS[remaining]
+             : () -> remaining;
+    }
+
     default Retries decrement() {
-      return () -> remaining() - 1;
+      return of(remaining() - 1);
     }
 
     int remaining();
@@ -239,6 +288,22 @@ public class ServerQuery {
     int number();
   }
 
+  /**
+   * Sequential queries send one request at a time and wait for its response
+   * before sending the next. Pipelined queries send every needed request at
+   * once, player and rules requests carrying the last known challenge, and
+   * send them again only when a server hands out a new challenge.
+   */
+  @FunctionalInterface
+  public interface Pipelining {
+
+    Pipelining SEQUENTIAL = () -> false;
+
+    Pipelining PIPELINED = () -> true;
+
+    boolean isPipelined();
+  }
+
   @FunctionalInterface
   public interface StartTime {
 
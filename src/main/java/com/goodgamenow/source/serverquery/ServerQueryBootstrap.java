@@ -3,17 +3,20 @@ package com.goodgamenow.source.serverquery;
 import com.goodgamenow.source.serverquery.response.QueryResult;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.socket.nio.NioDatagramChannel;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -36,7 +39,7 @@ public class ServerQueryBootstrap extends Bootstrap {
 
     this.initializer = new ServerQueryChannelInitializer(parentContext);
     this.group(eventLoopGroup)
-        .channel(NioDatagramChannel.class)
+        .channel(Transports.datagramChannelType(eventLoopGroup))
         .option(ChannelOption.SO_BROADCAST, true)
         .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
         .option(ChannelOption.SO_SNDBUF, 1024 * 1024 * 8)
@@ -104,6 +107,59 @@ public class ServerQueryBootstrap extends Bootstrap {
     return Optional.ofNullable(socketAddress);
   }
 
+  /**
+   * Binds {@code count} channels to separate ephemeral ports for queries to
+   * be spread over by server address.
+   *
+   * @param count number of shards
+   * @return the bound shards.
+   * @throws InterruptedException if interrupted while binding.
+   */
+  public ServerQueryShards bindShards(int count) throws InterruptedException {
+    Channel[] channels = new Channel[count];
+    try {
+      for (int i = 0; i < count; i++) {
+        channels[i] = bind(0).sync().channel();
+      }
+    } catch (InterruptedException | RuntimeException ex) {
+      Arrays.stream(channels)
+            .filter(Objects::nonNull)
+            .forEach(Channel::close);
+      throw ex;
+    }
+    logger.debug("Bound {} query shards", count);
+    return new ServerQueryShards(channels);
+  }
+
+  /**
+   * Records the server info of every answer in {@code catalog}. Applies to
+   * channels bound afterwards.
+   */
+  public ServerQueryBootstrap catalog(ServerCatalog catalog) {
+    initializer.catalog(catalog);
+    return this;
+  }
+
+  /**
+   * Hands every finished result to {@code resultListener} on the event loop
+   * it finished on, instead of keeping it for {@link #getQueryResults()}.
+   * Applies to channels bound afterwards.
+   */
+  public ServerQueryBootstrap resultListener(
+      Consumer<QueryResult> resultListener) {
+    initializer.resultListener(resultListener);
+    return this;
+  }
+
+  /**
+   * Changes how finished results are gathered before the parent context
+   * is flushed, see {@link ResultCoalescer}. Applies to bound channels too.
+   */
+  public ServerQueryBootstrap coalesce(ResultCoalescer.Limits limits) {
+    initializer.coalesce(limits);
+    return this;
+  }
+
   public boolean reconciliationMapsAreEmpty() {
     return initializer.reconciliationMapsAreEmpty();
   }
@@ -112,4 +168,11 @@ public class ServerQueryBootstrap extends Bootstrap {
     return initializer.getQueryResults();
   }
 
+  /**
+   * @return number of queries held back by the send pacer.
+   */
+  public int getSendQueueDepth() {
+    return initializer.getSendQueueDepth();
+  }
+
 }
@@ -7,13 +7,12 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
-import io.netty.handler.timeout.IdleStateHandler;
 
 import java.net.InetSocketAddress;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 
 /**
@@ -24,52 +23,120 @@ import java.util.concurrent.TimeUnit;
 public class ServerQueryChannelInitializer
     extends ChannelInitializer<DatagramChannel> {
 
-
-  private static final long DEFAULT_TIMEOUT = 500;
-
-  private static final TimeUnit DEFAULT_TIME_UNIT = TimeUnit.MILLISECONDS;
-
-  private final Map<Channel, Map<InetSocketAddress, ServerQuery>> reconcileMaps;
+  private final Map<Channel, Map<InetSocketAddress, QueryState>> reconcileMaps;
 
   private final Map<InetSocketAddress, QueryResult> queryResultMap;
 
   // singleton message handlers
   private final ServerQueryPump serverQueryPump;
 
-  private final ChannelHandlerContext parentContext;
+  // shared by every channel so results are gathered across them
+  private final ResultCoalescer parentResults;
+
+  // shared by every channel so the rate applies to all of them together
+  private final TokenBucket sendBucket;
+
+  private final Map<Channel, SendPacer> pacers = new ConcurrentHashMap<>();
+
+  private volatile ServerCatalog catalog;
+
+  private volatile Consumer<QueryResult> resultListener;
 
   public ServerQueryChannelInitializer(ChannelHandlerContext parentContext) {
-    this.parentContext = parentContext;
+    this(parentContext, SendPacer.DEFAULT_RATE, SendPacer.DEFAULT_BURST);
+  }
+
+  /**
+   * @param parentContext where finished results are written, may be null
+   * @param sendRate      datagrams sent per second, zero to not pace
+   * @param sendBurst     datagrams that may be sent at once after a pause
+   */
+  public ServerQueryChannelInitializer(ChannelHandlerContext parentContext,
+                                       long sendRate,
+                                       int sendBurst) {
+    this.parentResults = (parentContext == null)
+                         ? null
+                         : new ResultCoalescer(parentContext);
     this.reconcileMaps = new ConcurrentHashMap<>();
     this.queryResultMap = new ConcurrentHashMap<>();
     serverQueryPump = new ServerQueryPump(reconcileMaps);
+    sendBucket = (sendRate > 0) ? new TokenBucket(sendRate, sendBurst) : null;
   }
 
 
   @Override
   protected void initChannel(DatagramChannel ch) throws Exception {
-    Map<InetSocketAddress, ServerQuery> reconciliationMap =
-        new ConcurrentHashMap<>();
+    Map<InetSocketAddress, QueryState> reconciliationMap =
+        new ReconcileMap<>();
     reconcileMaps.put(ch, reconciliationMap);
+    // queries of a closed channel are never answered, take them off the
+    // in flight count.
+    ch.closeFuture().addListener(f -> reconciliationMap.clear());
 
     ch.pipeline()
       .addLast("logging", new LoggingHandler(LogLevel.DEBUG))
       .addLast("query-codec", new ServerQueryCodec())
-      .addLast("idle-event-maker", new IdleStateHandler(DEFAULT_TIMEOUT,
-                                                        DEFAULT_TIMEOUT, 0,
-                                                        DEFAULT_TIME_UNIT))
-      .addLast("pump", serverQueryPump)
+      .addLast("pump", serverQueryPump);
+
+    if (sendBucket != null) {
+      SendPacer pacer = new SendPacer(sendBucket);
+      pacers.put(ch, pacer);
+      ch.closeFuture().addListener(f -> pacers.remove(ch));
+      ch.pipeline().addLast("pacer", pacer);
+    }
+
+    ch.pipeline()
       .addLast("query-result", new QueryResultHandler(reconciliationMap,
                                                       queryResultMap,
-                                                      parentContext))
+                                                      parentResults,
+                                                      catalog,
+                                                      resultListener))
     ;
   }
 
 
+  /**
+   * @param catalog records server info answered on channels initialized
+   *                from now on, may be null
+   */
+  public ServerQueryChannelInitializer catalog(ServerCatalog catalog) {
+    this.catalog = catalog;
+    return this;
+  }
+
+  /**
+   * @param resultListener called with every result finished on channels
+   *                       initialized from now on, may be null
+   */
+  public ServerQueryChannelInitializer resultListener(
+      Consumer<QueryResult> resultListener) {
+    this.resultListener = resultListener;
+    return this;
+  }
+
+  /**
+   * Changes how results are gathered on their way to the parent context.
+   * Ignored without a parent context.
+   */
+  public ServerQueryChannelInitializer coalesce(
+      ResultCoalescer.Limits limits) {
+    if (parentResults != null) {
+      parentResults.limits(limits);
+    }
+    return this;
+  }
+
   public Collection<QueryResult> getQueryResults() {
     return queryResultMap.values();
   }
 
+  /**
+   * @return number of queries waiting for the send pacer on all channels.
+   */
+  public int getSendQueueDepth() {
+    return pacers.values().stream().mapToInt(SendPacer::queueDepth).sum();
+  }
+
   public boolean reconciliationMapsAreEmpty() {
     return reconcileMaps.values().stream().allMatch(Map::isEmpty);
   }
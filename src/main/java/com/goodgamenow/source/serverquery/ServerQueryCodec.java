@@ -2,27 +2,20 @@ package com.goodgamenow.source.serverquery;
 
 import com.goodgamenow.source.serverquery.response.*;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
-import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.util.CharsetUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.itadaki.bzip2.BZip2InputStream;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteOrder;
-import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.zip.CRC32;
 
 /**
  * User: Joe Nellis
@@ -64,12 +57,61 @@ class ServerQueryCodec
 
   private static final int MAX_SPLIT_PACKETS = 20;
 
+  private static final int COMPRESSED_MASK = 0x80000000;
+
   private static final int MAX_DECODED_STRING_LENGTH = 280;
 
+  private static final boolean FLYWEIGHT_SERVERINFO =
+      Boolean.getBoolean("FLYWEIGHT_SERVERINFO");
+
   private static final Logger logger = LogManager.getLogger();
 
-  private final ConcurrentHashMap<InetSocketAddress, CompositeByteBuf>
-      splitPackets = new ConcurrentHashMap<>();
+  private final boolean flyweightServerInfo;
+
+  private final StringCache stringCache;
+
+  private final SplitPacketReassembler splitPackets;
+
+  /**
+   * Creates a codec that decodes server info eagerly unless the
+   * FLYWEIGHT_SERVERINFO system property is set, and that deduplicates
+   * repeated strings through the shared string cache.
+   */
+  ServerQueryCodec() {
+    this(FLYWEIGHT_SERVERINFO, StringCache.SHARED);
+  }
+
+  /**
+   * @param flyweightServerInfo when true, server info responses are decoded
+   *                            into a {@link FlyweightServerInfo} that only
+   *                            builds strings when they are asked for.
+   */
+  ServerQueryCodec(boolean flyweightServerInfo) {
+    this(flyweightServerInfo, StringCache.SHARED);
+  }
+
+  /**
+   * @param flyweightServerInfo see {@link #ServerQueryCodec(boolean)}
+   * @param stringCache         cache for strings that repeat across
+   *                            servers, or null to always decode.
+   */
+  ServerQueryCodec(boolean flyweightServerInfo, StringCache stringCache) {
+    this(flyweightServerInfo, stringCache, new SplitPacketReassembler());
+  }
+
+  /**
+   * @param flyweightServerInfo see {@link #ServerQueryCodec(boolean)}
+   * @param stringCache         see
+   *                            {@link #ServerQueryCodec(boolean, StringCache)}
+   * @param splitPackets        collects the fragments of split responses
+   */
+  ServerQueryCodec(boolean flyweightServerInfo,
+                   StringCache stringCache,
+                   SplitPacketReassembler splitPackets) {
+    this.flyweightServerInfo = flyweightServerInfo;
+    this.stringCache = stringCache;
+    this.splitPackets = splitPackets;
+  }
 
   public static String getHostNameAndPort(InetSocketAddress address) {
     return address.getHostString() + ':' + address.getPort();
@@ -80,34 +122,75 @@ class ServerQueryCodec
                         ServerQuery query,
                         List<Object> out) throws Exception {
 
-    ByteBuf buf = ctx.alloc().buffer();
-
-    logger.debug("query is " + query);
+    logger.debug("query is {}", query);
     InetSocketAddress address = query.address;
 
+    if (query.pipelining.isPipelined()) {
+      encodePipelined(ctx, query, out);
+      return;
+    }
+
+    ByteBuf buf = ctx.alloc().buffer();
+
     // Handle server info first
     if (query.serverInfoRequest.isNeeded()) {
       buf.writeBytes(A2S_INFO_REQ_HEADER);
+      QueryMetrics.INFO_SENT.inc();
       logger.trace("Sending server info request");
 
     } else if (query.playerInfoRequest.isNeeded()) {
       buf.writeBytes(A2S_PLAYER_REQ_HEADER);
       buf.writeInt(query.challenge.number());
+      QueryMetrics.PLAYERS_SENT.inc();
       logger.trace("Sending player info request");
 
     } else if (query.serverRulesRequest.isNeeded()) {
       buf.writeBytes(A2S_RULES_REQ_HEADER);
       buf.writeInt(query.challenge.number());
+      QueryMetrics.RULES_SENT.inc();
     }
 
     out.add(new DatagramPacket(buf, address));
   }
 
+  /**
+   * Writes one datagram for each needed request. Player and rules requests
+   * share the challenge, so a server that has not handed one out yet
+   * answers both with the same challenge response.
+   */
+  private void encodePipelined(ChannelHandlerContext ctx,
+                               ServerQuery query,
+                               List<Object> out) {
+    InetSocketAddress address = query.address;
+    int challenge = query.challenge.number();
+
+    if (query.serverInfoRequest.isNeeded()) {
+      out.add(new DatagramPacket(request(ctx, A2S_INFO_REQ_HEADER), address));
+      QueryMetrics.INFO_SENT.inc();
+    }
+    if (query.playerInfoRequest.isNeeded()) {
+      ByteBuf buf = request(ctx, A2S_PLAYER_REQ_HEADER).writeInt(challenge);
+      out.add(new DatagramPacket(buf, address));
+      QueryMetrics.PLAYERS_SENT.inc();
+    }
+    if (query.serverRulesRequest.isNeeded()) {
+      ByteBuf buf = request(ctx, A2S_RULES_REQ_HEADER).writeInt(challenge);
+      out.add(new DatagramPacket(buf, address));
+      QueryMetrics.RULES_SENT.inc();
+    }
+    logger.trace("Sending {} pipelined requests", out.size());
+  }
+
+  private static ByteBuf request(ChannelHandlerContext ctx, byte[] header) {
+    return ctx.alloc().buffer(header.length + 4).writeBytes(header);
+  }
+
   @Override
   protected void decode(ChannelHandlerContext ctx,
                         DatagramPacket packet,
                         List<Object> out) throws Exception {
     logger.debug("decoding packet...");
+    long start = System.nanoTime();
     ByteBuf buf = packet.content().order(ByteOrder.LITTLE_ENDIAN);
 
     int type = buf.readInt();
@@ -128,8 +211,10 @@ class ServerQueryCodec
       }
     }
     catch (Exception e){
+      QueryMetrics.DECODE_FAILURES.inc();
       logger.warn(e.getMessage());
     }
+    QueryMetrics.DECODE_DURATION.record(System.nanoTime() - start);
   }
 
   private ServerResponse decodePayload(ChannelHandlerContext ctx,
@@ -142,16 +227,21 @@ class ServerQueryCodec
     BiFunction<InetSocketAddress, ByteBuf, ServerResponse> decoder;
     switch (headerType) {
       case SERVERINFO_REPLY_HEADER_CODE:
-        decoder = this::decodeServerInfo;
+        decoder = flyweightServerInfo ? this::decodeFlyweightServerInfo
+                                      : this::decodeServerInfo;
+        QueryMetrics.INFO_RECEIVED.inc();
         break;
       case PLAYERINFO_REPLY_HEADER_CODE:
         decoder = this::decodePlayerInfos;
+        QueryMetrics.PLAYERS_RECEIVED.inc();
         break;
       case CHALLENGE_REPLY_HEADER_CODE:
         decoder = this::decodeChallenge;
+        QueryMetrics.CHALLENGES_RECEIVED.inc();
         break;
       case SERVERRULES_REPLY_HEADER_CODE:
         decoder = this::decodeServerRules;
+        QueryMetrics.RULES_RECEIVED.inc();
         break;
       case OBSOLETE_GOLD_SOURCE_HEADER_CODE:
         logger.info("detected obsolete gold source server.");
@@ -168,10 +258,10 @@ class ServerQueryCodec
     logger.trace("decoding split packet...");
     // decode the split packet header
     ByteBuf buf = packet.content().order(ByteOrder.LITTLE_ENDIAN);
-    long packetGroup = buf.readInt();
-    boolean isCompressed = packetGroup >> 31 == 1;
-    int totalPackets = buf.readByte();
-    int packetNumber = buf.readByte();
+    int packetGroup = buf.readInt();
+    boolean isCompressed = (packetGroup & COMPRESSED_MASK) != 0;
+    int totalPackets = buf.readUnsignedByte();
+    int packetNumber = buf.readUnsignedByte();
     /* short size = */
     buf.readShort();  // may be used later.
     InetSocketAddress key = packet.sender();
@@ -181,55 +271,40 @@ class ServerQueryCodec
       throw new IllegalStateException("Too many split packets from " + key);
     }
 
-    // retrieve the composite buffer and add the new packet buffer
-    CompositeByteBuf cbuf = splitPackets.compute(key, (k, v) ->
-        Optional.ofNullable(v)
-                .orElseGet(() -> buf.alloc().compositeBuffer(totalPackets))
-                .addComponent(packetNumber, buf.slice().retain()));
-    cbuf.writerIndex(cbuf.capacity());
+    ByteBuf fragment = packet.content().retainedSlice();
+    ByteBuf reassembled = splitPackets.offer(buf.alloc(), key, packetGroup,
+                                             totalPackets, packetNumber,
+                                             fragment);
+    if (reassembled == null) {
+      return null;
+    }
 
-    // if the composite buffer is full, send the reassembled response.
-    if (cbuf.numComponents() == cbuf.maxNumComponents()) {
-      ByteBuf result;
+    // the whole response is here, decode it and release every buffer.
+    ByteBuf payload = reassembled;
+    try {
       if (isCompressed) {
-        result = decodeBZip2Packet(cbuf);
-      } else {
-        result = cbuf.slice().retain();
+        payload = decodeBZip2Packet(reassembled);
       }
-      DatagramPacket composedPacket = new DatagramPacket(result,
+      DatagramPacket composedPacket = new DatagramPacket(payload,
                                                          packet.recipient(),
                                                          packet.sender());
       composedPacket.content().readInt(); // consume the PACKET_HEADER
 
       return decodePayload(ctx, composedPacket);
+    } finally {
+      if (payload != reassembled) {
+        payload.release();
+      }
+      reassembled.release();
     }
-
-    return null;
   }
 
   private ByteBuf decodeBZip2Packet(ByteBuf buf) {
-    int uncompressedLength = buf.readInt();
-    int expectedCrc32 = buf.readInt();
-    ByteBuf writeBuf = buf.alloc().buffer(uncompressedLength)
-                          .order(ByteOrder.LITTLE_ENDIAN);
-
-    try (BZip2InputStream inputStream =
-             new BZip2InputStream(new ByteBufInputStream(buf), false);
-         ByteBufOutputStream outputStream =
-             new ByteBufOutputStream(writeBuf)) {
-      int bytesRead;
-      byte[] decoded = new byte[uncompressedLength];
-      CRC32 crc32 = new CRC32();
-      while ((bytesRead = inputStream.read(decoded)) != -1) {
-        outputStream.write(decoded, 0, bytesRead);
-        crc32.update(decoded);
-      }
-      assert crc32.getValue() == expectedCrc32;
-      buf.release();
-    } catch (IOException ex) {
-      logger.catching(ex);
-    }
-    return writeBuf;
+    logger.trace("decompressing split packet...");
+    QueryMetrics.BZIP2_DECODES.inc();
+    return BZip2PacketDecoder.current()
+                             .decode(buf, buf.alloc(),
+                                     BZip2PacketDecoder.MAX_LENGTH);
   }
 
   private ServerInfo decodeServerInfo(InetSocketAddress from, ByteBuf buf) {
@@ -237,9 +312,9 @@ class ServerQueryCodec
     ServerInfo serverInfo = new ServerInfo(from)
         .protocol(buf.readByte())
         .name(decodeString(buf))
-        .map(decodeString(buf))
-        .folder(decodeString(buf))
-        .game(decodeString(buf))
+        .map(decodeString(buf, stringCache))
+        .folder(decodeString(buf, stringCache))
+        .game(decodeString(buf, stringCache))
         .appId(buf.readShort())
         .players(buf.readByte())
         .maxPlayers(buf.readByte())
@@ -257,37 +332,43 @@ class ServerQueryCodec
                 .witness(buf.readByte())
                 .duration(buf.readByte());
     }
-    serverInfo.version(decodeString(buf));
+    serverInfo.version(decodeString(buf, stringCache));
 
-    byte edf = buf.getByte(buf.readerIndex());
+    if (!buf.isReadable()) {
+      return serverInfo;
+    }
+    byte edf = buf.readByte();
+    serverInfo.extraDataFlag(edf);
 
-    byte PORT_MASK = (byte) 0x80;
-    byte STEAMID_MASK = 0x10;
-    byte SPECPORT_MASK = 0x40;
-    byte KEYWORDS_MASK = 0x20;
-    byte GAMEID_MASK = 0x01;
+    int PORT_MASK = 0x80;
+    int STEAMID_MASK = 0x10;
+    int SPECPORT_MASK = 0x40;
+    int KEYWORDS_MASK = 0x20;
+    int GAMEID_MASK = 0x01;
 
-    if ((edf & PORT_MASK) > 0) {
-      serverInfo.gamePort(buf.readShort());
+    if ((edf & PORT_MASK) != 0) {
+      if (buf.isReadable(2)) {
+        serverInfo.gamePort(buf.readShort());
+      }
     }
-    if ((edf & STEAMID_MASK) > 0) {
+    if ((edf & STEAMID_MASK) != 0) {
       if (buf.isReadable(8)) {
         serverInfo.serverSteamId(buf.readLong());
       }
     }
-    if ((edf & SPECPORT_MASK) > 0) {
+    if ((edf & SPECPORT_MASK) != 0) {
       if (buf.isReadable(2)) {
         serverInfo.specPort(buf.readShort())
                   .specName(decodeString(buf));
       }
     }
-    if ((edf & KEYWORDS_MASK) > 0) {
+    if ((edf & KEYWORDS_MASK) != 0) {
       if (buf.isReadable()) {
-        serverInfo.keywords(decodeString(buf));
+        serverInfo.keywords(decodeString(buf, stringCache));
       }
     }
-    if ((edf & GAMEID_MASK) > 0) {
-      if (buf.isReadable()) {
+    if ((edf & GAMEID_MASK) != 0) {
+      if (buf.isReadable(8)) {
         serverInfo.gameId(buf.readLong());
       }
     }
@@ -295,7 +376,27 @@ class ServerQueryCodec
     return serverInfo;
   }
 
+  /**
+   * Copies the rest of the payload once and lets the flyweight record field
+   * offsets, deferring string construction until a getter asks for it.
+   */
+  private ServerInfo decodeFlyweightServerInfo(InetSocketAddress from,
+                                               ByteBuf buf) {
+    logger.trace("Receiving flyweight server info from {}", from);
+    byte[] payload = new byte[buf.readableBytes()];
+    buf.readBytes(payload);
+    return new FlyweightServerInfo(from, payload);
+  }
+
   private String decodeString(ByteBuf buf) {
+    return decodeString(buf, null);
+  }
+
+  /**
+   * Decodes a null terminated string, returning the canonical instance from
+   * {@code cache} when one is given.
+   */
+  private String decodeString(ByteBuf buf, StringCache cache) {
 
     int len = buf.bytesBefore(NULL_TERMINATOR);
     if (-1 == len) {
@@ -308,7 +409,9 @@ class ServerQueryCodec
     }
     int index = buf.readerIndex();
     //todo: check for malformed utf
-    String result = buf.toString(index, len, Charset.forName("UTF-8"));
+    String result = (cache == null)
+                    ? buf.toString(index, len, CharsetUtil.UTF_8)
+                    : cache.get(buf, index, len);
     buf.skipBytes(len + 1);//skip null terminator
     return result;
   }
@@ -358,7 +461,7 @@ class ServerQueryCodec
     int ruleCount = buf.readShort();
     ServerRules serverRules = new ServerRules(from);
     while (ruleCount-- > 0) {
-      String name = decodeString(buf);
+      String name = decodeString(buf, stringCache);
       String rule = decodeString(buf);
       serverRules.properties.setProperty(name, rule);
     }
@@ -366,6 +469,16 @@ class ServerQueryCodec
     return serverRules;
   }
 
+  SplitPacketReassembler splitPackets() {
+    return splitPackets;
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    splitPackets.clear();
+    super.handlerRemoved(ctx);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
       throws Exception {
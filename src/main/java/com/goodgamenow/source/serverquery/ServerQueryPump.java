@@ -1,17 +1,27 @@
 package com.goodgamenow.source.serverquery;
 
 import io.netty.channel.*;
-import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Records outgoing queries for reconciliation and resends them when a
+ * server does not answer in time.
+ * <p>
+ * Every write to a server re-arms that server's deadline on the timer
+ * wheel, so scheduling and cancelling cost the same however many queries
+ * are in flight and a deadline fires on time however busy the channel is.
+ * An expired deadline is handed to the channel's event loop, which resends
+ * the unfinished part of the query or gives up when it is out of retries.
+ * <p>
  * User: Joe Nellis
  * Date: 6/8/2015
  * Time: 8:56 PM
@@ -19,85 +29,42 @@ import java.util.concurrent.Semaphore;
 @ChannelHandler.Sharable
 public class ServerQueryPump extends ChannelDuplexHandler {
 
-  private final Map<Channel, Map<InetSocketAddress, ServerQuery>> reconcileMaps;
-
-  private final Semaphore available = new Semaphore(1, true);
+  static final long DEFAULT_TIMEOUT_MILLIS =
+      Long.getLong("QUERY_TIMEOUT_MILLIS", 500L);
 
   private static final Logger logger = LogManager.getLogger();
 
-  public ServerQueryPump(
-      Map<Channel, Map<InetSocketAddress, ServerQuery>> reconcileMaps) {
-    this.reconcileMaps = reconcileMaps;
-  }
+  private final Map<Channel, Map<InetSocketAddress, QueryState>> reconcileMaps;
 
-  public Map<Channel, Map<InetSocketAddress, ServerQuery>> getReconcileMaps() {
-    return reconcileMaps;
-  }
+  // deadlines of each channel, only touched from that channel's event loop
+  private final Map<Channel, Map<InetSocketAddress, Timeout>> deadlines =
+      new ConcurrentHashMap<>();
 
-  @Override
-  public void userEventTriggered(ChannelHandlerContext ctx, Object evt)
-      throws Exception {
-    if (evt instanceof IdleStateEvent) {
-      switch (((IdleStateEvent) evt).state()){
-        case READER_IDLE:
-          logger.trace("Reprocessing timeouts.");
-          // Don't bother us if another thread is currently reprocessing timeouts
-          if (available.tryAcquire()) {
-            try {
-              reprocessTimeouts(ctx);
-            } catch (Throwable t) {
-              logger.warn("reprocessTimeouts has thrown.", t);
-              throw t;
-            } finally {
-              available.release();
-            }
-          }
-          // all others fall through and do nothing
-          break;
-        case WRITER_IDLE: doNothing();
-          break;
-        default:
-      }
-    }
-  }
+  private final Timer timer;
 
-  private void doNothing(){}
+  private final long timeoutMillis;
+
+  public ServerQueryPump(
+      Map<Channel, Map<InetSocketAddress, QueryState>> reconcileMaps) {
+    this(reconcileMaps, WheelTimer.INSTANCE, DEFAULT_TIMEOUT_MILLIS);
+  }
 
   /**
-   * Go through all outstanding queries, pick the ones that have timed out
-   * because of no response yet and resend them.
+   * @param reconcileMaps outstanding queries of each channel
+   * @param timer         timer that schedules query deadlines
+   * @param timeoutMillis how long to wait for a server before resending
    */
-  private void reprocessTimeouts(ChannelHandlerContext ctx)  {
-    // for each channel specific reconciliation map
-    reconcileMaps.forEach((channel, map) -> {
-      // copy server queries to avoid concurrent map operation error
-      List<ServerQuery> outstandingQueries = new ArrayList<>(map.values());
-
-      // get a list of addresses that have timed out queries
-      outstandingQueries
-          .stream()
-          .filter(ServerQuery::isTimedOut)
-          .forEach(q -> map.computeIfPresent(
-              q.address,
-              (InetSocketAddress addr, ServerQuery query) -> {
-                // remove finished queries or those without retries left.
-                if ((query.retries.remaining() < 1) || query.isFinished()) {
-                  return null;  // returning null removes the mapping.
-                }
-                ServerQuery updatedQuery =
-                    new ServerQuery(query.address,
-                                    query.queryId,
-                                    query.serverInfoRequest,
-                                    query.playerInfoRequest,
-                                    query.serverRulesRequest,
-                                    query.retries.decrement(),
-                                    query.challenge);
-                // resend it.
-                channel.pipeline().writeAndFlush(updatedQuery);
-                return updatedQuery;
-              }
-          ));
-    });
+  ServerQueryPump(
+      Map<Channel, Map<InetSocketAddress, QueryState>> reconcileMaps,
+      Timer timer,
+      long timeoutMillis) {
+    this.reconcileMaps = reconcileMaps;
+    this.timer = timer;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  public Map<Channel, Map<InetSocketAddress, QueryState>> getReconcileMaps() {
+    return reconcileMaps;
   }
 
   /**
@@ -113,13 +80,87 @@ public class ServerQueryPump extends ChannelDuplexHandler {
                     Object msg,
                     ChannelPromise promise) throws Exception {
     if (msg instanceof ServerQuery) {
-      promise.addListener(
-          future -> {
-            ServerQuery query = (ServerQuery) msg;
-            reconcileMaps.get(ctx.channel()).put(query.address, query);
-          }
-      );
+      ServerQuery query = (ServerQuery) msg;
+      Map<InetSocketAddress, QueryState> map =
+          reconcileMaps.get(ctx.channel());
+      QueryState state = map.get(query.address);
+      if (state == null) {
+        map.put(query.address, QueryState.of(query));
+      } else {
+        // a query already being reconciled keeps its own state, a
+        // pipelined follow-up only carries part of it.
+        state.sent();
+      }
+      arm(ctx.channel(), query.address);
     }
     super.write(ctx, msg, promise);
   }
-}
\ No newline at end of file
+
+  private void arm(Channel channel, InetSocketAddress address) {
+    Map<InetSocketAddress, Timeout> channelDeadlines =
+        deadlines.computeIfAbsent(channel, ch -> new HashMap<>());
+    Timeout previous = channelDeadlines.put(
+        address,
+        timer.newTimeout(
+            timeout -> channel.eventLoop()
+                              .execute(() -> expire(channel, address, timeout)),
+            timeoutMillis, TimeUnit.MILLISECONDS));
+    if (previous != null) {
+      previous.cancel();
+    }
+  }
+
+  /**
+   * Resends the unfinished part of a query whose deadline passed, or drops
+   * it when it is finished or has no retries left.
+   */
+  private void expire(Channel channel, InetSocketAddress address,
+                      Timeout timeout) {
+    Map<InetSocketAddress, Timeout> channelDeadlines = deadlines.get(channel);
+    // superseded by a later write or the channel went away
+    if (channelDeadlines == null ||
+        !channelDeadlines.remove(address, timeout)) {
+      return;
+    }
+    Map<InetSocketAddress, QueryState> map = reconcileMaps.get(channel);
+    QueryState state = (map == null) ? null : map.get(address);
+    if (state == null) {
+      return;
+    }
+    // remove finished queries or those without retries left.
+    if (state.isFinished()) {
+      map.remove(address);
+      return;
+    }
+    QueryMetrics.TIMEOUTS.inc();
+    if (!state.retry()) {
+      logger.trace("Giving up on {}", address);
+      QueryMetrics.RETRIES_EXHAUSTED.inc();
+      map.remove(address);
+      return;
+    }
+    // resend it.
+    QueryMetrics.RETRIES.inc();
+    channel.pipeline().writeAndFlush(state.view());
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    cancelDeadlines(ctx.channel());
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    cancelDeadlines(ctx.channel());
+    super.handlerRemoved(ctx);
+  }
+
+  private void cancelDeadlines(Channel channel) {
+    Map<InetSocketAddress, Timeout> channelDeadlines =
+        deadlines.remove(channel);
+    if (channelDeadlines != null) {
+      channelDeadlines.values().forEach(Timeout::cancel);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelGroupFuture;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of query channels, each bound to its own ephemeral port, that
+ * spread queries between them by server address.
+ * <p>
+ * A server always hashes to the same shard, so its replies come back to
+ * the socket that holds its reconcile state. Each shard is registered on
+ * its own event loop where the group has enough of them, which lets sends,
+ * receives and decoding run on as many cores as there are shards.
+ * <p>
+ * Created by {@link ServerQueryBootstrap#bindShards(int)}.
+ */
+public class ServerQueryShards {
+
+  private final Channel[] channels;
+
+  private final ChannelGroup group =
+      new DefaultChannelGroup("server-query-shards",
+                              GlobalEventExecutor.INSTANCE);
+
+  ServerQueryShards(Channel... channels) {
+    if (channels.length < 1) {
+      throw new IllegalArgumentException("At least one shard is needed.");
+    }
+    this.channels = channels.clone();
+    group.addAll(Arrays.asList(channels));
+  }
+
+  /**
+   * @return the shard queries to {@code address} are sent on.
+   */
+  public Channel channelFor(InetSocketAddress address) {
+    int hash = address.hashCode();
+    hash ^= hash >>> 16;
+    return channels[Math.floorMod(hash, channels.length)];
+  }
+
+  public ChannelFuture writeAndFlush(ServerQuery query) {
+    return channelFor(query.address).writeAndFlush(query);
+  }
+
+  public List<Channel> channels() {
+    return Collections.unmodifiableList(Arrays.asList(channels));
+  }
+
+  public int size() {
+    return channels.length;
+  }
+
+  /**
+   * @return true while every shard is open.
+   */
+  public boolean isOpen() {
+    return group.size() == channels.length;
+  }
+
+  public ChannelGroupFuture close() {
+    return group.close();
+  }
+}
@@ -0,0 +1,347 @@
+package com.goodgamenow.source.serverquery;
+
+import com.goodgamenow.source.serverquery.response.QueryResult;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.Timer;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One set of query channels shared by every session, sending each server at
+ * most one query at a time however many sessions ask for it.
+ * <p>
+ * A session asking for a server that is already being queried for at
+ * least what it needs waits for that query's result, and one asking for a
+ * server answered within {@link #FRESH_MILLIS} gets that result straight
+ * away. A session that needs more than the query in flight asks for, say
+ * the rules on top of the info, is queried for once that query finishes.
+ * Every result goes to every session that waited for it.
+ * <p>
+ * Queries that never finish are given up on after {@link #DEADLINE_MILLIS}
+ * and their sessions hear nothing, as with a query of their own.
+ */
+@ThreadSafe
+public final class SharedQueryEngine implements Closeable {
+
+  /**
+   * How long a result is handed out instead of querying again, set by
+   * ENGINE_FRESH_MILLIS.
+   */
+  static final long FRESH_MILLIS = Long.getLong("ENGINE_FRESH_MILLIS", 5_000L);
+
+  /**
+   * How long a query may take before it is given up on, set by
+   * ENGINE_DEADLINE_MILLIS. Longer than a query can take with all its
+   * retries.
+   */
+  static final long DEADLINE_MILLIS =
+      Long.getLong("ENGINE_DEADLINE_MILLIS", 10_000L);
+
+  private static final int SHARDS =
+      Integer.getInteger("QUERY_SHARDS",
+                         Runtime.getRuntime().availableProcessors());
+
+  private static final int REQUESTS = QueryState.SERVER_INFO |
+      QueryState.PLAYER_INFO | QueryState.SERVER_RULES;
+
+  private final ConcurrentMap<InetSocketAddress, Entry> entries =
+      new ConcurrentHashMap<>();
+
+  private final Consumer<ServerQuery> send;
+
+  private final Timer timer;
+
+  private final long freshMillis;
+
+  private final long deadlineMillis;
+
+  private final ServerQueryBootstrap bootstrap;
+
+  private final ServerQueryShards shards;
+
+  private volatile Optional<Consumer<QueryResult>> resultListener =
+      Optional.empty();
+
+  private SharedQueryEngine(ServerQueryBootstrap bootstrap,
+                            ServerQueryShards shards) {
+    this.bootstrap = bootstrap;
+    this.shards = shards;
+    this.send = shards::writeAndFlush;
+    this.timer = WheelTimer.INSTANCE;
+    this.freshMillis = FRESH_MILLIS;
+    this.deadlineMillis = DEADLINE_MILLIS;
+  }
+
+  /**
+   * @param send           sends a query
+   * @param timer          runs the freshness and query deadlines
+   * @param freshMillis    how long a result is handed out again
+   * @param deadlineMillis how long a query may take
+   */
+  SharedQueryEngine(Consumer<ServerQuery> send,
+                    Timer timer,
+                    long freshMillis,
+                    long deadlineMillis) {
+    this.bootstrap = null;
+    this.shards = null;
+    this.send = send;
+    this.timer = timer;
+    this.freshMillis = freshMillis;
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  /**
+   * Binds the shared query channels on {@code group}.
+   *
+   * @param catalog records every answer, may be null
+   * @throws InterruptedException if interrupted while binding.
+   */
+  public static SharedQueryEngine start(EventLoopGroup group,
+                                        ServerCatalog catalog)
+      throws InterruptedException {
+    SharedQueryEngine[] engine = new SharedQueryEngine[1];
+    ServerQueryBootstrap bootstrap =
+        new ServerQueryBootstrap(group)
+            .catalog(catalog)
+            .resultListener(result -> engine[0].answered(result));
+    engine[0] = new SharedQueryEngine(bootstrap, bootstrap.bindShards(SHARDS));
+    return engine[0];
+  }
+
+  /**
+   * Gets {@code subscriber} the result of {@code query}, from a fresh
+   * result, a query in flight or a new query. The subscriber is called on
+   * whichever thread has the result.
+   */
+  public void submit(ServerQuery query, Consumer<QueryResult> subscriber) {
+    int needs = needs(query);
+    for (;;) {
+      Entry entry = entries.computeIfAbsent(query.address, Entry::new);
+      QueryResult fresh = null;
+      ServerQuery toSend = null;
+      synchronized (entry) {
+        if (entry.removed) {
+          continue;
+        }
+        if (entry.inFlight == 0 && entry.isFresh(needs)) {
+          fresh = entry.result;
+        } else {
+          entry.waiters.add(new Waiter(query, needs, subscriber));
+          if (entry.inFlight == 0) {
+            toSend = entry.query(query, needs);
+          }
+        }
+      }
+      if (fresh != null) {
+        subscriber.accept(fresh);
+      }
+      if (toSend != null) {
+        send.accept(toSend);
+      }
+      return;
+    }
+  }
+
+  /**
+   * @param resultListener called with every result the engine gets,
+   *                       whether or not a session still waits for it,
+   *                       may be null
+   */
+  public SharedQueryEngine resultListener(
+      Consumer<QueryResult> resultListener) {
+    this.resultListener = Optional.ofNullable(resultListener);
+    return this;
+  }
+
+  /**
+   * Hands a finished result to the sessions waiting for it.
+   */
+  void answered(QueryResult result) {
+    resultListener.ifPresent(listener -> listener.accept(result));
+    Entry entry = entries.get(result.from());
+    if (entry == null) {
+      return;
+    }
+    List<Consumer<QueryResult>> satisfied = new ArrayList<>();
+    ServerQuery followUp = null;
+    synchronized (entry) {
+      if (entry.inFlight == 0) {
+        return;
+      }
+      // a finished query settles what it asked for, even where the server
+      // had nothing to give, like players of an empty server.
+      int answered = entry.inFlight;
+      entry.result = result;
+      entry.resultNeeds = answered;
+      entry.freshUntil = System.nanoTime() +
+          TimeUnit.MILLISECONDS.toNanos(freshMillis);
+      entry.inFlight = 0;
+
+      int unsettled = 0;
+      Waiter first = null;
+      for (Iterator<Waiter> it = entry.waiters.iterator(); it.hasNext(); ) {
+        Waiter waiter = it.next();
+        if ((waiter.needs & ~answered) == 0) {
+          satisfied.add(waiter.subscriber);
+          it.remove();
+        } else {
+          unsettled |= waiter.needs;
+          first = (first == null) ? waiter : first;
+        }
+      }
+      if (first != null) {
+        followUp = entry.query(first.query, unsettled);
+      } else {
+        expireLater(entry, freshMillis);
+      }
+    }
+    satisfied.forEach(subscriber -> subscriber.accept(result));
+    if (followUp != null) {
+      send.accept(followUp);
+    }
+  }
+
+  private void expireLater(Entry entry, long delayMillis) {
+    long generation = entry.generation;
+    timer.newTimeout(timeout -> expire(entry, generation), delayMillis,
+                     TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Drops an entry whose query never finished or whose result went stale,
+   * unless it was queried again since.
+   */
+  private void expire(Entry entry, long generation) {
+    synchronized (entry) {
+      if (entry.generation != generation) {
+        return;
+      }
+      entry.removed = true;
+      entries.remove(entry.address, entry);
+    }
+  }
+
+  /**
+   * @return number of servers queried or answered recently.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return number of queries held back by the send pacers.
+   */
+  public int getSendQueueDepth() {
+    return (bootstrap == null) ? 0 : bootstrap.getSendQueueDepth();
+  }
+
+  /**
+   * Closes the query channels. Sessions waiting for results hear nothing.
+   */
+  @Override
+  public void close() {
+    if (shards != null) {
+      shards.close();
+    }
+    entries.clear();
+  }
+
+  private static int needs(ServerQuery query) {
+    return (query.serverInfoRequest.isNeeded() ? QueryState.SERVER_INFO
+                                               : 0) |
+        (query.playerInfoRequest.isNeeded() ? QueryState.PLAYER_INFO : 0) |
+        (query.serverRulesRequest.isNeeded() ? QueryState.SERVER_RULES : 0);
+  }
+
+  /**
+   * Queries and results of one server.
+   */
+  private final class Entry {
+
+    final InetSocketAddress address;
+
+    @GuardedBy("this")
+    final List<Waiter> waiters = new ArrayList<>(1);
+
+    // requests of the query in flight, zero when there is none
+    @GuardedBy("this")
+    int inFlight;
+
+    @GuardedBy("this")
+    QueryResult result;
+
+    // requests the last result settled
+    @GuardedBy("this")
+    int resultNeeds;
+
+    @GuardedBy("this")
+    long freshUntil;
+
+    // changes with every query, so stale deadlines can tell
+    @GuardedBy("this")
+    long generation;
+
+    @GuardedBy("this")
+    boolean removed;
+
+    Entry(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    boolean isFresh(int needs) {
+      return result != null && (needs & ~resultNeeds) == 0 &&
+          System.nanoTime() - freshUntil < 0;
+    }
+
+    /**
+     * Starts a query like {@code options} for {@code needs}, to be sent
+     * once out of the lock.
+     */
+    ServerQuery query(ServerQuery options, int needs) {
+      inFlight = needs & REQUESTS;
+      generation++;
+      expireLater(this, deadlineMillis);
+      return new ServerQuery(
+          address,
+          options.queryId,
+          (needs & QueryState.SERVER_INFO) != 0
+          ? ServerQuery.ServerInfoRequest.NEEDED
+          : ServerQuery.ServerInfoRequest.NOT_NEEDED,
+          (needs & QueryState.PLAYER_INFO) != 0
+          ? ServerQuery.PlayerInfoRequest.NEEDED
+          : ServerQuery.PlayerInfoRequest.NOT_NEEDED,
+          (needs & QueryState.SERVER_RULES) != 0
+          ? ServerQuery.ServerRulesRequest.NEEDED
+          : ServerQuery.ServerRulesRequest.NOT_NEEDED,
+          options.retries,
+          ChallengeCache.SHARED.seed(address, options.challenge),
+          options.pipelining);
+    }
+  }
+
+  private static final class Waiter {
+
+    final ServerQuery query;
+
+    final int needs;
+
+    final Consumer<QueryResult> subscriber;
+
+    Waiter(ServerQuery query, int needs, Consumer<QueryResult> subscriber) {
+      this.query = query;
+      this.needs = needs;
+      this.subscriber = subscriber;
+    }
+  }
+}
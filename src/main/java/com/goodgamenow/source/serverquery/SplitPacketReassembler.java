@@ -0,0 +1,235 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import net.jcip.annotations.ThreadSafe;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the fragments of split response packets until every fragment of
+ * a group has arrived.
+ * <p>
+ * Groups are keyed by sender and packet id. Each group gets a deadline on
+ * the timer wheel and is dropped if it is still incomplete when the
+ * deadline fires. The bytes held by all incomplete groups are capped by a
+ * budget; going over it drops the oldest groups first. Every dropped group
+ * has its fragments released.
+ */
+@ThreadSafe
+class SplitPacketReassembler {
+
+  static final long DEFAULT_TIMEOUT_MILLIS =
+      Long.getLong("SPLIT_TIMEOUT_MILLIS", 1000L);
+
+  static final int DEFAULT_BYTE_BUDGET =
+      Integer.getInteger("SPLIT_BYTE_BUDGET", 4 * 1024 * 1024);
+
+  private final Timer timer;
+
+  private final long timeoutMillis;
+
+  private final int byteBudget;
+
+  // insertion ordered so the oldest group is evicted first
+  private final Map<GroupKey, Group> groups = new LinkedHashMap<>();
+
+  private int pendingBytes;
+
+  private long completed;
+
+  private long expired;
+
+  private long evicted;
+
+  SplitPacketReassembler() {
+    this(WheelTimer.INSTANCE, DEFAULT_TIMEOUT_MILLIS, DEFAULT_BYTE_BUDGET);
+  }
+
+  /**
+   * @param timer         timer that schedules group deadlines
+   * @param timeoutMillis how long a group may wait for its last fragment
+   * @param byteBudget    most bytes held by incomplete groups at once
+   */
+  SplitPacketReassembler(Timer timer, long timeoutMillis, int byteBudget) {
+    this.timer = timer;
+    this.timeoutMillis = timeoutMillis;
+    this.byteBudget = byteBudget;
+  }
+
+  /**
+   * Adds a fragment to its group. Ownership of the fragment passes to this
+   * reassembler whether or not it is used.
+   *
+   * @param alloc    allocator for the reassembled buffer
+   * @param sender   address of the responding server
+   * @param id       packet id shared by all fragments of one response
+   * @param total    number of fragments in the group
+   * @param number   zero based position of this fragment
+   * @param fragment payload of this fragment
+   * @return the reassembled payload once the group is complete, which the
+   * caller must release, otherwise null.
+   */
+  synchronized ByteBuf offer(ByteBufAllocator alloc,
+                             InetSocketAddress sender,
+                             int id,
+                             int total,
+                             int number,
+                             ByteBuf fragment) {
+    if (total < 1 || number < 0 || number >= total) {
+      fragment.release();
+      throw new IllegalStateException("Bad split packet number " + number +
+                                          " of " + total + " from " + sender);
+    }
+
+    int size = fragment.readableBytes();
+    if (size > byteBudget) {
+      fragment.release();
+      throw new IllegalStateException("Split packet larger than budget from " +
+                                          sender);
+    }
+
+    GroupKey key = new GroupKey(sender, id);
+    Group group = groups.get(key);
+    if (group == null) {
+      group = new Group(total);
+      groups.put(key, group);
+      Group scheduled = group;
+      group.deadline = timer.newTimeout(t -> expire(key, scheduled),
+                                        timeoutMillis, TimeUnit.MILLISECONDS);
+    } else if (group.fragments.length != total ||
+        group.fragments[number] != null) {
+      // inconsistent or duplicate fragment
+      fragment.release();
+      return null;
+    }
+
+    group.fragments[number] = fragment;
+    group.received++;
+    group.bytes += size;
+    pendingBytes += size;
+
+    if (group.received == total) {
+      groups.remove(key);
+      group.deadline.cancel();
+      pendingBytes -= group.bytes;
+      completed++;
+      QueryMetrics.SPLIT_COMPLETED.inc();
+      return alloc.compositeBuffer(total)
+                  .addComponents(true, group.fragments);
+    }
+
+    evictOverBudget(group);
+    return null;
+  }
+
+  private void evictOverBudget(Group current) {
+    Iterator<Group> oldest = groups.values().iterator();
+    while (pendingBytes > byteBudget && oldest.hasNext()) {
+      Group group = oldest.next();
+      if (group == current) {
+        continue;
+      }
+      oldest.remove();
+      drop(group);
+      evicted++;
+      QueryMetrics.SPLIT_EVICTED.inc();
+    }
+  }
+
+  private synchronized void expire(GroupKey key, Group group) {
+    if (groups.remove(key, group)) {
+      drop(group);
+      expired++;
+      QueryMetrics.SPLIT_EXPIRED.inc();
+    }
+  }
+
+  private void drop(Group group) {
+    group.deadline.cancel();
+    pendingBytes -= group.bytes;
+    for (ByteBuf fragment : group.fragments) {
+      ReferenceCountUtil.release(fragment);
+    }
+  }
+
+  /**
+   * Releases every incomplete group.
+   */
+  synchronized void clear() {
+    groups.values().forEach(this::drop);
+    groups.clear();
+  }
+
+  synchronized int pendingGroups() {
+    return groups.size();
+  }
+
+  synchronized int pendingBytes() {
+    return pendingBytes;
+  }
+
+  synchronized long completed() {
+    return completed;
+  }
+
+  synchronized long expired() {
+    return expired;
+  }
+
+  synchronized long evicted() {
+    return evicted;
+  }
+
+  private static final class GroupKey {
+
+    private final InetSocketAddress sender;
+
+    private final int id;
+
+    private GroupKey(InetSocketAddress sender, int id) {
+      this.sender = sender;
+      this.id = id;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * sender.hashCode() + id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof GroupKey)) {
+        return false;
+      }
+      GroupKey that = (GroupKey) o;
+      return (id == that.id) && Objects.equals(sender, that.sender);
+    }
+  }
+
+  private static final class Group {
+
+    private final ByteBuf[] fragments;
+
+    private int received;
+
+    private int bytes;
+
+    private Timeout deadline;
+
+    private Group(int total) {
+      this.fragments = new ByteBuf[total];
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+/**
+ * A bounded cache of canonical Strings keyed by their raw UTF-8 bytes.
+ * <p>
+ * Map names, game folders, versions, keywords and rule names repeat across
+ * thousands of servers. Looking them up by the bytes still sitting in the
+ * datagram returns the one shared String without decoding UTF-8 again, and
+ * every result that holds it retains a single copy.
+ * <p>
+ * The cache is direct mapped: the hash of the bytes picks exactly one slot
+ * and a miss replaces whatever was there, so the footprint never grows past
+ * the slot count. Slots hold immutable entries, which makes it safe to share
+ * one cache between event loops; a racing replacement only loses an entry.
+ */
+final class StringCache {
+
+  /**
+   * Process wide cache, sized by the STRING_CACHE_SIZE system property.
+   * A size of zero disables it.
+   */
+  static final StringCache SHARED =
+      create(Integer.getInteger("STRING_CACHE_SIZE", 8192));
+
+  /**
+   * Longer strings are rarely repeated and are decoded without caching.
+   */
+  private static final int MAX_CACHED_LENGTH = 128;
+
+  private final Entry[] slots;
+
+  private final int mask;
+
+  /**
+   * @param size number of slots, rounded up to a power of two.
+   */
+  StringCache(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Cache size must be positive.");
+    }
+    int capacity = Integer.highestOneBit(size - 1) << 1;
+    this.slots = new Entry[Math.max(1, capacity)];
+    this.mask = slots.length - 1;
+  }
+
+  /**
+   * @return a cache of the given size or null if size is not positive.
+   */
+  static StringCache create(int size) {
+    return (size > 0) ? new StringCache(size) : null;
+  }
+
+  /**
+   * Returns the String for {@code length} UTF-8 bytes of {@code buf} at
+   * {@code index}. Does not modify the reader index.
+   */
+  String get(ByteBuf buf, int index, int length) {
+    if (length > MAX_CACHED_LENGTH) {
+      return buf.toString(index, length, CharsetUtil.UTF_8);
+    }
+    int hash = hash(buf, index, length);
+    int slot = hash & mask;
+    Entry entry = slots[slot];
+    if (entry != null && entry.matches(hash, buf, index, length)) {
+      return entry.value;
+    }
+    byte[] bytes = new byte[length];
+    buf.getBytes(index, bytes);
+    entry = new Entry(hash, bytes, new String(bytes, CharsetUtil.UTF_8));
+    slots[slot] = entry;
+    return entry.value;
+  }
+
+  private static int hash(ByteBuf buf, int index, int length) {
+    int hash = length;
+    for (int i = index, end = index + length; i < end; i++) {
+      hash = 31 * hash + buf.getByte(i);
+    }
+    // spread the high bits down so small tables still see them.
+    return hash ^ (hash >>> 16);
+  }
+
+  private static final class Entry {
+
+    final int hash;
+
+    final byte[] bytes;
+
+    final String value;
+
+    Entry(int hash, byte[] bytes, String value) {
+      this.hash = hash;
+      this.bytes = bytes;
+      this.value = value;
+    }
+
+    boolean matches(int hash, ByteBuf buf, int index, int length) {
+      if (this.hash != hash || bytes.length != length) {
+        return false;
+      }
+      for (int i = 0; i < bytes.length; i++) {
+        if (bytes[i] != buf.getByte(index + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.goodgamenow.source.serverquery;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out permits at a steady rate, letting up to a burst of them be
+ * taken at once after a quiet spell.
+ * <p>
+ * Tokens are refilled lazily from the elapsed time whenever the bucket is
+ * asked for permits, so an idle bucket costs nothing. One bucket may be
+ * shared by every channel that should count against the same rate.
+ */
+@ThreadSafe
+final class TokenBucket {
+
+  private final double tokensPerNano;
+
+  private final int burst;
+
+  private double tokens;
+
+  private long lastRefill;
+
+  /**
+   * @param permitsPerSecond steady rate permits are handed out at
+   * @param burst            most permits that can be saved up
+   */
+  TokenBucket(long permitsPerSecond, int burst) {
+    if (permitsPerSecond < 1 || burst < 1) {
+      throw new IllegalArgumentException("Rate and burst must be positive.");
+    }
+    this.tokensPerNano =
+        permitsPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+    this.burst = burst;
+    this.tokens = burst;
+    this.lastRefill = System.nanoTime();
+  }
+
+  /**
+   * Takes {@code permits} if they are available now. Asking for more than
+   * the burst size takes a whole burst instead.
+   *
+   * @return true if the permits were taken.
+   */
+  synchronized boolean tryAcquire(int permits) {
+    refill();
+    double needed = Math.min(permits, burst);
+    if (tokens < needed) {
+      return false;
+    }
+    tokens -= needed;
+    return true;
+  }
+
+  /**
+   * @return nanoseconds until {@code permits} become available, zero if
+   * they are available now.
+   */
+  synchronized long nanosUntilAvailable(int permits) {
+    refill();
+    double missing = Math.min(permits, burst) - tokens;
+    return (missing <= 0) ? 0 : (long) Math.ceil(missing / tokensPerNano);
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+    lastRefill = now;
+  }
+}
@@ -0,0 +1,85 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Picks the native epoll transport on Linux when it loads, and NIO
+ * everywhere else.
+ * <p>
+ * Channel classes are chosen from the type of event loop group they will
+ * be registered with, so a bootstrap handed an NIO group still works on a
+ * host where epoll is available. The epoll datagram channel writes
+ * everything queued by one flush with a single sendmmsg call.
+ * Set NO_EPOLL to force NIO.
+ */
+public final class Transports {
+
+  /**
+   * True if new event loop groups use the native epoll transport.
+   */
+  public static final boolean EPOLL =
+      !Boolean.getBoolean("NO_EPOLL") && Epoll.isAvailable();
+
+  private static final Logger logger = LogManager.getLogger();
+
+  static {
+    logger.debug("Using {} transport", EPOLL ? "epoll" : "nio");
+  }
+
+  private Transports() {
+  }
+
+  /**
+   * @param threads number of event loops, zero for netty's default
+   * @return an epoll event loop group if available, otherwise NIO.
+   */
+  public static EventLoopGroup newEventLoopGroup(int threads) {
+    return EPOLL ? new EpollEventLoopGroup(threads)
+                 : new NioEventLoopGroup(threads);
+  }
+
+  public static EventLoopGroup newEventLoopGroup() {
+    return newEventLoopGroup(0);
+  }
+
+  /**
+   * @return the datagram channel class that registers with {@code group}.
+   */
+  public static Class<? extends DatagramChannel>
+  datagramChannelType(EventLoopGroup group) {
+    return isEpoll(group) ? EpollDatagramChannel.class
+                          : NioDatagramChannel.class;
+  }
+
+  /**
+   * @return the server socket channel class that registers with
+   * {@code group}.
+   */
+  public static Class<? extends ServerSocketChannel>
+  serverSocketChannelType(EventLoopGroup group) {
+    return isEpoll(group) ? EpollServerSocketChannel.class
+                          : NioServerSocketChannel.class;
+  }
+
+  /**
+   * A single event loop is judged by the group it belongs to.
+   */
+  private static boolean isEpoll(EventLoopGroup group) {
+    if (group instanceof EventLoop) {
+      group = ((EventLoop) group).parent();
+    }
+    return group instanceof EpollEventLoopGroup;
+  }
+}
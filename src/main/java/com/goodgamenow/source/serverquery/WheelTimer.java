@@ -0,0 +1,30 @@
+package com.goodgamenow.source.serverquery;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the hashed wheel timer shared by the deadlines in this package.
+ * <p>
+ * Scheduling and cancelling on the wheel are constant time no matter how
+ * many deadlines are pending, at the price of firing up to one tick late.
+ * Timer tasks run on the wheel's own thread, so anything that touches
+ * channel state from a task should hand off to the channel's event loop.
+ */
+final class WheelTimer {
+
+  private static final long TICK_MILLIS = 10L;
+
+  private static final int TICKS_PER_WHEEL = 512;
+
+  static final Timer INSTANCE =
+      new HashedWheelTimer(new DefaultThreadFactory("serverquery-timer", true),
+                           TICK_MILLIS, TimeUnit.MILLISECONDS,
+                           TICKS_PER_WHEEL);
+
+  private WheelTimer() {
+  }
+}
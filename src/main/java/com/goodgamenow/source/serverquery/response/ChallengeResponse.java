@@ -1,5 +1,6 @@
 package com.goodgamenow.source.serverquery.response;
 
+import com.goodgamenow.source.serverquery.QueryState;
 import com.goodgamenow.source.serverquery.ServerQuery;
 
 import java.net.InetSocketAddress;
@@ -56,7 +57,24 @@ public class ChallengeResponse extends ServerResponse {
                            query.playerInfoRequest,
                            query.serverRulesRequest,
                            ServerQuery.Retries.MAX_RETRIES,
-                           this::challenge);
+                           this::challenge,
+                           query.pipelining);
+  }
+
+  @Override
+  public void update(QueryState state) {
+    state.challenge(challenge);
+    state.resetRetries();
+  }
+
+  /**
+   * Player and rules requests that went out with a stale challenge were
+   * answered with this one; they must go again. Further challenge
+   * responses carrying the same number are for requests already resent.
+   */
+  @Override
+  public boolean resendsPipelined(QueryState state) {
+    return challenge != state.challenge();
   }
 
   @Override
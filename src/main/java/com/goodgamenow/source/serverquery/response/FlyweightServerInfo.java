@@ -0,0 +1,379 @@
+package com.goodgamenow.source.serverquery.response;
+
+import io.netty.buffer.ByteBuf;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A read only ServerInfo that is a flyweight over a copy of the A2S_INFO
+ * payload.
+ * <p>
+ * The payload is walked once on construction to record where each field
+ * starts. Numeric fields are read from the payload on every call and
+ * strings are only decoded the first time their getter is called, so a
+ * server that is filtered out or never serialized costs one byte array
+ * instead of a String per field. The fluent setters inherited from
+ * ServerInfo have no effect on the values returned by the getters.
+ */
+public class FlyweightServerInfo extends ServerInfo {
+
+  private static final int NOT_PRESENT = -1;
+
+  private static final int MAX_STRING_LENGTH = 280;
+
+  private static final int FIXED_FIELDS_WIDTH = 9;
+
+  private static final int SHIP_FIELDS_WIDTH = 3;
+
+  private static final int PORT_MASK = 0x80;
+
+  private static final int STEAMID_MASK = 0x10;
+
+  private static final int SPECPORT_MASK = 0x40;
+
+  private static final int KEYWORDS_MASK = 0x20;
+
+  private static final int GAMEID_MASK = 0x01;
+
+  private final byte[] payload;
+
+  private final int mapIndex;
+
+  private final int folderIndex;
+
+  private final int gameIndex;
+
+  private final int appIdIndex;
+
+  private final int shipIndex;
+
+  private final int versionIndex;
+
+  private final int extraDataFlagIndex;
+
+  private final int gamePortIndex;
+
+  private final int serverSteamIdIndex;
+
+  private final int specPortIndex;
+
+  private final int specNameIndex;
+
+  private final int keywordsIndex;
+
+  private final int gameIdIndex;
+
+  // strings are built on first access
+  private String name;
+
+  private String map;
+
+  private String folder;
+
+  private String game;
+
+  private String version;
+
+  private String specName;
+
+  private String keywords;
+
+  /**
+   * Records the field offsets of an A2S_INFO payload.
+   *
+   * @param from    address of the responding server
+   * @param payload the response starting at the protocol byte, the header
+   *                byte already consumed. Ownership passes to this object.
+   * @exception IllegalStateException if the payload is truncated or a
+   *                                  string is unterminated or too long.
+   */
+  public FlyweightServerInfo(InetSocketAddress from, byte[] payload) {
+    this(from, payload, System.currentTimeMillis());
+  }
+
+  /**
+   * Same as {@link #FlyweightServerInfo(InetSocketAddress, byte[])} for a
+   * payload kept from an earlier response.
+   *
+   * @param timeReceived when the payload was received
+   */
+  public FlyweightServerInfo(InetSocketAddress from,
+                             byte[] payload,
+                             long timeReceived) {
+    super(from, timeReceived);
+    this.payload = payload;
+
+    int index = 1; // protocol byte
+    index = skipString(payload, index); // name
+    this.mapIndex = index;
+    index = skipString(payload, index);
+    this.folderIndex = index;
+    index = skipString(payload, index);
+    this.gameIndex = index;
+    index = skipString(payload, index);
+
+    requireReadable(index, FIXED_FIELDS_WIDTH);
+    this.appIdIndex = index;
+    index += FIXED_FIELDS_WIDTH;
+
+    // handle The Ship stuff here
+    int appId = getAppId();
+    if (appId >= 2400 && appId <= 2403 || appId == 2412) {
+      requireReadable(index, SHIP_FIELDS_WIDTH);
+      this.shipIndex = index;
+      index += SHIP_FIELDS_WIDTH;
+    } else {
+      this.shipIndex = NOT_PRESENT;
+    }
+
+    this.versionIndex = index;
+    index = skipString(payload, index);
+
+    int edf = 0;
+    if (isReadable(index, 1)) {
+      this.extraDataFlagIndex = index;
+      edf = payload[index++];
+    } else {
+      this.extraDataFlagIndex = NOT_PRESENT;
+    }
+
+    if ((edf & PORT_MASK) != 0 && isReadable(index, 2)) {
+      this.gamePortIndex = index;
+      index += 2;
+    } else {
+      this.gamePortIndex = NOT_PRESENT;
+    }
+    if ((edf & STEAMID_MASK) != 0 && isReadable(index, 8)) {
+      this.serverSteamIdIndex = index;
+      index += 8;
+    } else {
+      this.serverSteamIdIndex = NOT_PRESENT;
+    }
+    if ((edf & SPECPORT_MASK) != 0 && isReadable(index, 2)) {
+      this.specPortIndex = index;
+      this.specNameIndex = index + 2;
+      index = skipString(payload, index + 2);
+    } else {
+      this.specPortIndex = NOT_PRESENT;
+      this.specNameIndex = NOT_PRESENT;
+    }
+    if ((edf & KEYWORDS_MASK) != 0 && isReadable(index, 1)) {
+      this.keywordsIndex = index;
+      index = skipString(payload, index);
+    } else {
+      this.keywordsIndex = NOT_PRESENT;
+    }
+    if ((edf & GAMEID_MASK) != 0 && isReadable(index, 8)) {
+      this.gameIdIndex = index;
+    } else {
+      this.gameIdIndex = NOT_PRESENT;
+    }
+  }
+
+  /**
+   * Writes the payload as it was received.
+   */
+  @Override
+  public void encode(ByteBuf out) {
+    out.writeBytes(payload);
+  }
+
+  private static int skipString(byte[] payload, int index) {
+    int limit = Math.min(payload.length, index + MAX_STRING_LENGTH + 1);
+    for (int i = index; i < limit; i++) {
+      if (payload[i] == 0) {
+        return i + 1;
+      }
+    }
+    if (limit == payload.length) {
+      throw new IllegalStateException(
+          "No null terminator found when decoding string");
+    }
+    throw new IllegalStateException("Unusually large string detected.");
+  }
+
+  private boolean isReadable(int index, int width) {
+    return index + width <= payload.length;
+  }
+
+  private void requireReadable(int index, int width) {
+    if (!isReadable(index, width)) {
+      throw new IllegalStateException("Truncated server info payload.");
+    }
+  }
+
+  private String decodeString(int index) {
+    if (index == NOT_PRESENT) {
+      return null;
+    }
+    int end = index;
+    while (payload[end] != 0) {
+      end++;
+    }
+    return new String(payload, index, end - index, StandardCharsets.UTF_8);
+  }
+
+  private byte byteAt(int index) {
+    return (index == NOT_PRESENT) ? 0 : payload[index];
+  }
+
+  private short shortAt(int index) {
+    if (index == NOT_PRESENT) {
+      return 0;
+    }
+    return (short) ((payload[index] & 0xFF) | (payload[index + 1] << 8));
+  }
+
+  private long longAt(int index) {
+    if (index == NOT_PRESENT) {
+      return 0L;
+    }
+    long result = 0L;
+    for (int i = 7; i >= 0; i--) {
+      result = (result << 8) | (payload[index + i] & 0xFF);
+    }
+    return result;
+  }
+
+  @Override
+  public byte getProtocol() {
+    return payload[0];
+  }
+
+  @Override
+  public String getName() {
+    if (name == null) {
+      name = decodeString(1);
+    }
+    return name;
+  }
+
+  @Override
+  public String getMap() {
+    if (map == null) {
+      map = decodeString(mapIndex);
+    }
+    return map;
+  }
+
+  @Override
+  public String getFolder() {
+    if (folder == null) {
+      folder = decodeString(folderIndex);
+    }
+    return folder;
+  }
+
+  @Override
+  public String getGame() {
+    if (game == null) {
+      game = decodeString(gameIndex);
+    }
+    return game;
+  }
+
+  @Override
+  public short getAppId() {
+    return shortAt(appIdIndex);
+  }
+
+  @Override
+  public byte getPlayers() {
+    return payload[appIdIndex + 2];
+  }
+
+  @Override
+  public byte getMaxPlayers() {
+    return payload[appIdIndex + 3];
+  }
+
+  @Override
+  public byte getBots() {
+    return payload[appIdIndex + 4];
+  }
+
+  @Override
+  public byte getServerType() {
+    return payload[appIdIndex + 5];
+  }
+
+  @Override
+  public byte getOs() {
+    return payload[appIdIndex + 6];
+  }
+
+  @Override
+  public byte getVisibility() {
+    return payload[appIdIndex + 7];
+  }
+
+  @Override
+  public byte getVac() {
+    return payload[appIdIndex + 8];
+  }
+
+  @Override
+  public byte getMode() {
+    return byteAt(shipIndex);
+  }
+
+  @Override
+  public byte getWitness() {
+    return (shipIndex == NOT_PRESENT) ? 0 : payload[shipIndex + 1];
+  }
+
+  @Override
+  public byte getDuration() {
+    return (shipIndex == NOT_PRESENT) ? 0 : payload[shipIndex + 2];
+  }
+
+  @Override
+  public String getVersion() {
+    if (version == null) {
+      version = decodeString(versionIndex);
+    }
+    return version;
+  }
+
+  @Override
+  public byte getExtraDataFlag() {
+    return byteAt(extraDataFlagIndex);
+  }
+
+  @Override
+  public short getGamePort() {
+    return shortAt(gamePortIndex);
+  }
+
+  @Override
+  public long getServerSteamId() {
+    return longAt(serverSteamIdIndex);
+  }
+
+  @Override
+  public short getSpecPort() {
+    return shortAt(specPortIndex);
+  }
+
+  @Override
+  public String getSpecName() {
+    if (specName == null) {
+      specName = decodeString(specNameIndex);
+    }
+    return specName;
+  }
+
+  @Override
+  public String getKeywords() {
+    if (keywords == null) {
+      keywords = decodeString(keywordsIndex);
+    }
+    return keywords;
+  }
+
+  @Override
+  public long getGameId() {
+    return longAt(gameIdIndex);
+  }
+}
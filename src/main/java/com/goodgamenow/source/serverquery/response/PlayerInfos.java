@@ -1,5 +1,6 @@
 package com.goodgamenow.source.serverquery.response;
 
+import com.goodgamenow.source.serverquery.QueryState;
 import com.goodgamenow.source.serverquery.ServerQuery;
 
 import java.net.InetSocketAddress;
@@ -29,7 +30,14 @@ public class PlayerInfos extends ServerResponse {
                            ServerQuery.PlayerInfoRequest.NOT_NEEDED,
                            query.serverRulesRequest,
                            ServerQuery.Retries.MAX_RETRIES,   // reset retries
-                           query.challenge);
+                           query.challenge,
+                           query.pipelining);
+  }
+
+  @Override
+  public void update(QueryState state) {
+    state.done(QueryState.PLAYER_INFO);
+    state.resetRetries();
   }
 
   @Override
@@ -1,6 +1,8 @@
 package com.goodgamenow.source.serverquery.response;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.IOException;
 import java.io.StringWriter;
@@ -85,38 +87,71 @@ public class QueryResult extends ResultBasics{
     return Optional.ofNullable(serverRules);
   }
 
+  public InetSocketAddress from() {
+    return from;
+  }
+
+  /**
+   * @return the same document as {@link #toJson}, as a tree that can be
+   * compared with the one of an earlier result.
+   */
+  public ObjectNode toJsonTree(ObjectMapper mapper) {
+    ObjectNode tree = mapper.createObjectNode();
+    tree.put("from", from.toString());
+    if (serverInfo != null) {
+      tree.set("serverInfo", mapper.valueToTree(serverInfo));
+    }
+    if (playerInfos != null) {
+      tree.set("playerInfos", mapper.valueToTree(playerInfos));
+    }
+    if (serverRules != null) {
+      tree.set("serverRules", mapper.valueToTree(serverRules));
+    }
+    OptionalDouble avgLatency = averageLatency();
+    if (avgLatency.isPresent()) {
+      tree.put("avgLatency", (int) avgLatency.getAsDouble());
+    }
+    return tree;
+  }
+
   public String toJson(ObjectMapper mapper) {
-    try {
-      StringWriter writer = new StringWriter();
-      writer.append("{")
-            .append("\"from\":\"")
-            .append(this.from.toString())
-            .append("\"");
-
-
-      if (serverInfo != null) {
-        writer.append(", \"serverInfo\":");
-        mapper.writeValue(writer, serverInfo);
-      }
-      if (playerInfos != null) {
-        writer.append(", \"playerInfos\":");
-        mapper.writeValue(writer, playerInfos);
-      }
-      if (serverRules != null) {
-        writer.append(", \"serverRules\":");
-        mapper.writeValue(writer, serverRules);
-      }
-      OptionalDouble avgLatency = averageLatency();
-      if (avgLatency.isPresent()) {
-        writer.append(", \"avgLatency\":");
-        mapper.writeValue(writer, (int)(avgLatency.getAsDouble()));
-      }
-      writer.append("}").flush();
-      return writer.toString();
+    StringWriter writer = new StringWriter();
+    try (JsonGenerator generator = mapper.getFactory()
+                                         .createGenerator(writer)) {
+      writeJson(generator, mapper);
     } catch (IOException e) {
       e.printStackTrace();
+      return "";
+    }
+    return writer.toString();
+  }
+
+  /**
+   * Writes the document of {@link #toJson} to {@code generator}, so it can
+   * go straight to wherever the generator writes.
+   */
+  public void writeJson(JsonGenerator generator, ObjectMapper mapper)
+      throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("from", from.toString());
+    if (serverInfo != null) {
+      generator.writeFieldName("serverInfo");
+      mapper.writeValue(generator, serverInfo);
+    }
+    if (playerInfos != null) {
+      generator.writeFieldName("playerInfos");
+      mapper.writeValue(generator, playerInfos);
+    }
+    if (serverRules != null) {
+      generator.writeFieldName("serverRules");
+      mapper.writeValue(generator, serverRules);
+    }
+    OptionalDouble avgLatency = averageLatency();
+    if (avgLatency.isPresent()) {
+      generator.writeNumberField("avgLatency",
+                                 (int) avgLatency.getAsDouble());
     }
-    return "";
+    generator.writeEndObject();
   }
 
   public OptionalDouble averageLatency() {
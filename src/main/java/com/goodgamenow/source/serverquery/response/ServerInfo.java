@@ -1,7 +1,11 @@
 package com.goodgamenow.source.serverquery.response;
 
+import com.goodgamenow.source.serverquery.QueryState;
 import com.goodgamenow.source.serverquery.ServerQuery;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
 import java.net.InetSocketAddress;
 import java.util.Map;
 
@@ -67,6 +71,10 @@ public class ServerInfo extends ServerResponse {
     super(from);
   }
 
+  protected ServerInfo(InetSocketAddress from, long timeReceived) {
+    super(from, timeReceived);
+  }
+
   public String getFolder() {
     return folder;
   }
@@ -305,7 +313,7 @@ public class ServerInfo extends ServerResponse {
   public ServerQuery update(ServerQuery query) {
     // if the server has no players we can turn off playerInfo request
     ServerQuery.PlayerInfoRequest playerInfoRequest =
-        (players() < 1) ? ServerQuery.PlayerInfoRequest.NOT_NEEDED
+        (getPlayers() < 1) ? ServerQuery.PlayerInfoRequest.NOT_NEEDED
                         : query.playerInfoRequest;
 
     return new ServerQuery(query.address,
@@ -314,7 +322,72 @@ public class ServerInfo extends ServerResponse {
                            playerInfoRequest,
                            query.serverRulesRequest,
                            ServerQuery.Retries.MAX_RETRIES,   // reset retries
-                           query.challenge);
+                           query.challenge,
+                           query.pipelining);
+  }
+
+  @Override
+  public void update(QueryState state) {
+    state.done(QueryState.SERVER_INFO);
+    // if the server has no players we can turn off playerInfo request
+    if (getPlayers() < 1) {
+      state.done(QueryState.PLAYER_INFO);
+    }
+    state.resetRetries();
+  }
+
+  /**
+   * Writes this server info as an A2S_INFO payload, starting at the
+   * protocol byte, the way a server sends it.
+   *
+   * @param out buffer to write to
+   */
+  public void encode(ByteBuf out) {
+    out.writeByte(getProtocol());
+    writeString(out, getName());
+    writeString(out, getMap());
+    writeString(out, getFolder());
+    writeString(out, getGame());
+    out.writeShortLE(getAppId())
+       .writeByte(getPlayers())
+       .writeByte(getMaxPlayers())
+       .writeByte(getBots())
+       .writeByte(getServerType())
+       .writeByte(getOs())
+       .writeByte(getVisibility())
+       .writeByte(getVac());
+    if (getAppId() >= 2400 && getAppId() <= 2403 || getAppId() == 2412) {
+      out.writeByte(getMode())
+         .writeByte(getWitness())
+         .writeByte(getDuration());
+    }
+    writeString(out, getVersion());
+
+    byte edf = getExtraDataFlag();
+    out.writeByte(edf);
+    if ((edf & 0x80) != 0) {
+      out.writeShortLE(getGamePort());
+    }
+    if ((edf & 0x10) != 0) {
+      out.writeLongLE(getServerSteamId());
+    }
+    if ((edf & 0x40) != 0) {
+      out.writeShortLE(getSpecPort());
+      writeString(out, getSpecName());
+    }
+    if ((edf & 0x20) != 0) {
+      writeString(out, getKeywords());
+    }
+    if ((edf & 0x01) != 0) {
+      out.writeLongLE(getGameId());
+    }
+  }
+
+  private static void writeString(ByteBuf out, String value) {
+    if (value != null) {
+      ByteBufUtil.writeUtf8(out, value);
+    }
+    out.writeByte(0);
   }
 
   @Override
@@ -325,42 +398,44 @@ public class ServerInfo extends ServerResponse {
         (orig, nu) -> orig.serverInfo(nu.getServerInfo().get()));
   }
 
-
-  private byte players() {
-    return players;
-  }
-
   @Override
   public String toString() {
     return "{\"_class\":\"ServerInfo\", " +
-        "\"protocol\":\"" + protocol + "\"" + ", " +
-        "\"name\":" + (name == null ? "null" : "\"" + name + "\"") + ", " +
-        "\"map\":" + (map == null ? "null" : "\"" + map + "\"") + ", " +
-        "\"folder\":" + (folder == null ? "null"
-                                        : "\"" + folder + "\"") + ", " +
-        "\"game\":" + (game == null ? "null" : "\"" + game + "\"") + ", " +
-        "\"appId\":\"" + appId + "\"" + ", " +
-        "\"players\":\"" + players + "\"" + ", " +
-        "\"maxPlayers\":\"" + maxPlayers + "\"" + ", " +
-        "\"bots\":\"" + bots + "\"" + ", " +
-        "\"serverType\":\"" + serverType + "\"" + ", " +
-        "\"os\":\"" + os + "\"" + ", " +
-        "\"visibility\":\"" + visibility + "\"" + ", " +
-        "\"vac\":\"" + vac + "\"" + ", " +
-        "\"mode\":\"" + mode + "\"" + ", " +
-        "\"witness\":\"" + witness + "\"" + ", " +
-        "\"duration\":\"" + duration + "\"" + ", " +
-        "\"version\":" + (version == null ? "null"
-                                          : "\"" + version + "\"") + ", " +
-        "\"extraDataFlag\":\"" + extraDataFlag + "\"" + ", " +
-        "\"gamePort\":\"" + gamePort + "\"" + ", " +
-        "\"serverSteamId\":\"" + serverSteamId + "\"" + ", " +
-        "\"specPort\":\"" + specPort + "\"" + ", " +
-        "\"specName\":" + (specName == null ? "null"
-                                            : "\"" + specName + "\"") + ", " +
-        "\"keywords\":" + (keywords == null ? "null"
-                                            : "\"" + keywords + "\"") + ", " +
-        "\"gameId\":\"" + gameId + "\"" +
+        "\"protocol\":\"" + getProtocol() + "\"" + ", " +
+        "\"name\":" + (getName() == null ? "null"
+                                         : "\"" + getName() + "\"") + ", " +
+        "\"map\":" + (getMap() == null ? "null"
+                                       : "\"" + getMap() + "\"") + ", " +
+        "\"folder\":" + (getFolder() == null ? "null"
+                                             : "\"" + getFolder() + "\"") +
+        ", " +
+        "\"game\":" + (getGame() == null ? "null"
+                                         : "\"" + getGame() + "\"") + ", " +
+        "\"appId\":\"" + getAppId() + "\"" + ", " +
+        "\"players\":\"" + getPlayers() + "\"" + ", " +
+        "\"maxPlayers\":\"" + getMaxPlayers() + "\"" + ", " +
+        "\"bots\":\"" + getBots() + "\"" + ", " +
+        "\"serverType\":\"" + getServerType() + "\"" + ", " +
+        "\"os\":\"" + getOs() + "\"" + ", " +
+        "\"visibility\":\"" + getVisibility() + "\"" + ", " +
+        "\"vac\":\"" + getVac() + "\"" + ", " +
+        "\"mode\":\"" + getMode() + "\"" + ", " +
+        "\"witness\":\"" + getWitness() + "\"" + ", " +
+        "\"duration\":\"" + getDuration() + "\"" + ", " +
+        "\"version\":" + (getVersion() == null ? "null"
+                                               : "\"" + getVersion() + "\"") +
+        ", " +
+        "\"extraDataFlag\":\"" + getExtraDataFlag() + "\"" + ", " +
+        "\"gamePort\":\"" + getGamePort() + "\"" + ", " +
+        "\"serverSteamId\":\"" + getServerSteamId() + "\"" + ", " +
+        "\"specPort\":\"" + getSpecPort() + "\"" + ", " +
+        "\"specName\":" + (getSpecName() == null ? "null"
+                                                 : "\"" + getSpecName() + "\"") +
+        ", " +
+        "\"keywords\":" + (getKeywords() == null ? "null"
+                                                 : "\"" + getKeywords() + "\"") +
+        ", " +
+        "\"gameId\":\"" + getGameId() + "\"" +
         "}";
   }
 
@@ -1,5 +1,6 @@
 package com.goodgamenow.source.serverquery.response;
 
+import com.goodgamenow.source.serverquery.QueryState;
 import com.goodgamenow.source.serverquery.ServerQuery;
 
 import java.net.InetSocketAddress;
@@ -21,12 +22,38 @@ public abstract class ServerResponse {
   private long latency;
 
   protected ServerResponse(InetSocketAddress from) {
+    this(from, System.currentTimeMillis());
+  }
+
+  /**
+   * @param timeReceived when the response arrived, for responses restored
+   *                     from storage
+   */
+  protected ServerResponse(InetSocketAddress from, long timeReceived) {
     this.from = from;
-    this.timeReceived = System.currentTimeMillis();
+    this.timeReceived = timeReceived;
   }
 
   public abstract ServerQuery update(ServerQuery query);
 
+  /**
+   * Same as {@link #update(ServerQuery)} but changes the reconcile state of
+   * the query in place.
+   */
+  public abstract void update(QueryState state);
+
+  /**
+   * Decides whether a pipelined query still waiting on other responses has
+   * to be written again once this response has updated it. Its other
+   * requests are already in flight, so by default it does not.
+   *
+   * @param state the query state before this response updated it
+   * @return true to resend the remaining requests.
+   */
+  public boolean resendsPipelined(QueryState state) {
+    return false;
+  }
+
   public abstract QueryResult mergeInto(
       Map<InetSocketAddress, QueryResult> resultMap);
 
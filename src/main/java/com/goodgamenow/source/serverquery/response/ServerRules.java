@@ -1,5 +1,6 @@
 package com.goodgamenow.source.serverquery.response;
 
+import com.goodgamenow.source.serverquery.QueryState;
 import com.goodgamenow.source.serverquery.ServerQuery;
 
 import java.net.InetSocketAddress;
@@ -37,7 +38,14 @@ public class ServerRules extends ServerResponse {
                            query.playerInfoRequest,
                            ServerQuery.ServerRulesRequest.NOT_NEEDED,
                            ServerQuery.Retries.MAX_RETRIES,
-                           query.challenge);
+                           query.challenge,
+                           query.pipelining);
+  }
+
+  @Override
+  public void update(QueryState state) {
+    state.done(QueryState.SERVER_RULES);
+    state.resetRetries();
   }
 
   @Override
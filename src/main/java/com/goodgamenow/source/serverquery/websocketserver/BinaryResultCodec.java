@@ -0,0 +1,366 @@
+package com.goodgamenow.source.serverquery.websocketserver;
+
+import com.goodgamenow.source.serverquery.response.PlayerInfo;
+import com.goodgamenow.source.serverquery.response.PlayerInfos;
+import com.goodgamenow.source.serverquery.response.QueryResult;
+import com.goodgamenow.source.serverquery.response.ServerInfo;
+import com.goodgamenow.source.serverquery.response.ServerResponse;
+import com.goodgamenow.source.serverquery.response.ServerRules;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of a {@link QueryResult} for websocket clients that
+ * ask for it instead of JSON.
+ * <p>
+ * A message is the server address, as a varint length, the address bytes
+ * and a big endian short port, followed by tagged sections and a zero tag:
+ * <pre>
+ * 1 server info    protocol, name, *map, *folder, *game, appId(2), players,
+ *                  maxPlayers, bots, serverType, os, visibility, vac,
+ *                  [mode, witness, duration of The Ship], *version,
+ *                  extraDataFlag and the fields it flags, as A2S_INFO
+ *                  orders them, *keywords included
+ * 2 players        varint count, then index(varint), name,
+ *                  score(zigzag varint), duration(float)
+ * 3 rules          varint count, then *name, value
+ * </pre>
+ * Every section ends with its latency as a varint. Numbers are fixed width
+ * and big endian unless noted, strings are a varint header followed by
+ * UTF-8: zero is null, an even header {@code 2n + 2} precedes {@code n}
+ * bytes and an odd header {@code 2n + 1} refers to entry {@code n} of the
+ * string table. Strings marked * are shared, the first time one is sent
+ * inline it also becomes the next table entry on both ends, until the
+ * table holds {@link #TABLE_SIZE} strings. The table lives as long as the
+ * connection, so an {@link Encoder} and its {@link Decoder} each belong to
+ * one connection.
+ */
+final class BinaryResultCodec {
+
+  /**
+   * Most strings shared over one connection, set by BINARY_STRING_TABLE.
+   */
+  static final int TABLE_SIZE =
+      Integer.getInteger("BINARY_STRING_TABLE", 4096);
+
+  static final int END = 0;
+
+  static final int SERVER_INFO = 1;
+
+  static final int PLAYERS = 2;
+
+  static final int RULES = 3;
+
+  private BinaryResultCodec() {
+  }
+
+  /**
+   * Writes results for one connection.
+   */
+  @NotThreadSafe
+  static final class Encoder {
+
+    private final Map<String, Integer> table = new HashMap<>();
+
+    private final int tableSize;
+
+    Encoder() {
+      this(TABLE_SIZE);
+    }
+
+    Encoder(int tableSize) {
+      this.tableSize = tableSize;
+    }
+
+    void encode(QueryResult result, ByteBuf out) {
+      byte[] ip = result.from().getAddress().getAddress();
+      writeVarint(out, ip.length);
+      out.writeBytes(ip).writeShort(result.from().getPort());
+
+      result.getServerInfo().ifPresent(info -> serverInfo(info, out));
+      result.playerInfos().ifPresent(players -> {
+        out.writeByte(PLAYERS);
+        writeVarint(out, players.getPlayers().size());
+        for (PlayerInfo player : players.getPlayers()) {
+          writeVarint(out, player.getIndex());
+          writeString(out, player.getName(), false);
+          writeVarint(out, (player.getScore() << 1) ^
+              (player.getScore() >> 31));
+          out.writeFloat(player.getDuration());
+        }
+        writeLatency(out, players);
+      });
+      result.serverRules().ifPresent(rules -> {
+        out.writeByte(RULES);
+        writeVarint(out, rules.properties.size());
+        rules.properties.stringPropertyNames().forEach(name -> {
+          writeString(out, name, true);
+          writeString(out, rules.properties.getProperty(name), false);
+        });
+        writeLatency(out, rules);
+      });
+      out.writeByte(END);
+    }
+
+    private void serverInfo(ServerInfo info, ByteBuf out) {
+      out.writeByte(SERVER_INFO)
+         .writeByte(info.getProtocol());
+      writeString(out, info.getName(), false);
+      writeString(out, info.getMap(), true);
+      writeString(out, info.getFolder(), true);
+      writeString(out, info.getGame(), true);
+      out.writeShort(info.getAppId())
+         .writeByte(info.getPlayers())
+         .writeByte(info.getMaxPlayers())
+         .writeByte(info.getBots())
+         .writeByte(info.getServerType())
+         .writeByte(info.getOs())
+         .writeByte(info.getVisibility())
+         .writeByte(info.getVac());
+      if (isTheShip(info.getAppId())) {
+        out.writeByte(info.getMode())
+           .writeByte(info.getWitness())
+           .writeByte(info.getDuration());
+      }
+      writeString(out, info.getVersion(), true);
+
+      byte edf = info.getExtraDataFlag();
+      out.writeByte(edf);
+      if ((edf & 0x80) != 0) {
+        out.writeShort(info.getGamePort());
+      }
+      if ((edf & 0x10) != 0) {
+        out.writeLong(info.getServerSteamId());
+      }
+      if ((edf & 0x40) != 0) {
+        out.writeShort(info.getSpecPort());
+        writeString(out, info.getSpecName(), false);
+      }
+      if ((edf & 0x20) != 0) {
+        writeString(out, info.getKeywords(), true);
+      }
+      if ((edf & 0x01) != 0) {
+        out.writeLong(info.getGameId());
+      }
+      writeLatency(out, info);
+    }
+
+    private void writeString(ByteBuf out, String value, boolean shared) {
+      if (value == null) {
+        writeVarint(out, 0);
+        return;
+      }
+      Integer ref = shared ? table.get(value) : null;
+      if (ref != null) {
+        writeVarint(out, 2 * ref + 1);
+        return;
+      }
+      if (shared && table.size() < tableSize) {
+        table.put(value, table.size());
+      }
+      byte[] utf8 = value.getBytes(CharsetUtil.UTF_8);
+      writeVarint(out, 2 * utf8.length + 2);
+      out.writeBytes(utf8);
+    }
+  }
+
+  /**
+   * Reads the results written by the {@link Encoder} of one connection.
+   */
+  @NotThreadSafe
+  static final class Decoder {
+
+    private final List<String> table = new ArrayList<>();
+
+    private final int tableSize;
+
+    Decoder() {
+      this(TABLE_SIZE);
+    }
+
+    Decoder(int tableSize) {
+      this.tableSize = tableSize;
+    }
+
+    /**
+     * @exception IllegalStateException if {@code in} is not an encoded
+     *                                  result.
+     */
+    QueryResult decode(ByteBuf in) {
+      byte[] ip = new byte[readVarint(in)];
+      in.readBytes(ip);
+      InetSocketAddress from;
+      try {
+        from = new InetSocketAddress(InetAddress.getByAddress(ip),
+                                     in.readUnsignedShort());
+      } catch (UnknownHostException ex) {
+        throw new IllegalStateException("Bad address in binary result.", ex);
+      }
+
+      QueryResult result = null;
+      for (int tag = in.readByte(); tag != END; tag = in.readByte()) {
+        switch (tag) {
+          case SERVER_INFO:
+            ServerInfo info = serverInfo(from, in);
+            result = (result == null) ? new QueryResult(info)
+                                      : result.serverInfo(info);
+            break;
+          case PLAYERS:
+            PlayerInfos players = players(from, in);
+            result = (result == null) ? new QueryResult(players)
+                                      : result.playerInfos(players);
+            break;
+          case RULES:
+            ServerRules rules = rules(from, in);
+            result = (result == null) ? new QueryResult(rules)
+                                      : result.serverRules(rules);
+            break;
+          default:
+            throw new IllegalStateException("Unknown section " + tag +
+                                                " in binary result.");
+        }
+      }
+      if (result == null) {
+        throw new IllegalStateException("Binary result without sections.");
+      }
+      return result;
+    }
+
+    private ServerInfo serverInfo(InetSocketAddress from, ByteBuf in) {
+      ServerInfo info = new ServerInfo(from)
+          .protocol(in.readByte())
+          .name(readString(in, false))
+          .map(readString(in, true))
+          .folder(readString(in, true))
+          .game(readString(in, true))
+          .appId(in.readShort())
+          .players(in.readByte())
+          .maxPlayers(in.readByte())
+          .bots(in.readByte())
+          .serverType(in.readByte())
+          .os(in.readByte())
+          .visibility(in.readByte())
+          .vac(in.readByte());
+      if (isTheShip(info.getAppId())) {
+        info.mode(in.readByte())
+            .witness(in.readByte())
+            .duration(in.readByte());
+      }
+      info.version(readString(in, true));
+
+      byte edf = in.readByte();
+      info.extraDataFlag(edf);
+      if ((edf & 0x80) != 0) {
+        info.gamePort(in.readShort());
+      }
+      if ((edf & 0x10) != 0) {
+        info.serverSteamId(in.readLong());
+      }
+      if ((edf & 0x40) != 0) {
+        info.specPort(in.readShort())
+            .specName(readString(in, false));
+      }
+      if ((edf & 0x20) != 0) {
+        info.keywords(readString(in, true));
+      }
+      if ((edf & 0x01) != 0) {
+        info.gameId(in.readLong());
+      }
+      info.latency(readVarint(in));
+      return info;
+    }
+
+    private PlayerInfos players(InetSocketAddress from, ByteBuf in) {
+      int count = readVarint(in);
+      List<PlayerInfo> players = new ArrayList<>(Math.min(count, 256));
+      for (int i = 0; i < count; i++) {
+        int index = readVarint(in);
+        String name = readString(in, false);
+        int zigzag = readVarint(in);
+        int score = (zigzag >>> 1) ^ -(zigzag & 1);
+        players.add(new PlayerInfo(index, name, score, in.readFloat()));
+      }
+      PlayerInfos playerInfos = new PlayerInfos(from).players(players);
+      playerInfos.latency(readVarint(in));
+      return playerInfos;
+    }
+
+    private ServerRules rules(InetSocketAddress from, ByteBuf in) {
+      ServerRules rules = new ServerRules(from);
+      int count = readVarint(in);
+      for (int i = 0; i < count; i++) {
+        String name = readString(in, true);
+        String value = readString(in, false);
+        if (name != null && value != null) {
+          rules.properties.setProperty(name, value);
+        }
+      }
+      rules.latency(readVarint(in));
+      return rules;
+    }
+
+    private String readString(ByteBuf in, boolean shared) {
+      int header = readVarint(in);
+      if (header == 0) {
+        return null;
+      }
+      if ((header & 1) != 0) {
+        int ref = header >>> 1;
+        if (ref >= table.size()) {
+          throw new IllegalStateException("Unknown string " + ref +
+                                              " in binary result.");
+        }
+        return table.get(ref);
+      }
+      int length = (header >>> 1) - 1;
+      String value = in.readCharSequence(length, CharsetUtil.UTF_8)
+                       .toString();
+      if (shared && table.size() < tableSize) {
+        table.add(value);
+      }
+      return value;
+    }
+  }
+
+  private static boolean isTheShip(short appId) {
+    return appId >= 2400 && appId <= 2403 || appId == 2412;
+  }
+
+  private static void writeLatency(ByteBuf out, ServerResponse response) {
+    writeVarint(out, (int) Math.min(Math.max(response.latency(), 0),
+                                    Integer.MAX_VALUE));
+  }
+
+  /**
+   * Writes {@code value} seven bits at a time, low bits first, with the high
+   * bit set on every byte but the last.
+   */
+  static void writeVarint(ByteBuf out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  static int readVarint(ByteBuf in) {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalStateException("Varint too long in binary result.");
+  }
+}
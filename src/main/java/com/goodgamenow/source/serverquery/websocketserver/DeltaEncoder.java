@@ -0,0 +1,137 @@
+package com.goodgamenow.source.serverquery.websocketserver;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.goodgamenow.source.serverquery.response.QueryResult;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Turns the results sent over one connection into patches against what
+ * the connection was last sent about the same server.
+ * <p>
+ * The first result of a server, and every {@link #FULL_EVERY}th after it,
+ * goes out whole as <code>{"from":..., "full":true, ...}</code> so a client
+ * that lost track can resync. Anything else goes out as
+ * <code>{"from":..., "patch":{...}}</code> holding only what changed, in
+ * the manner of a JSON merge patch: changed values are replaced, objects
+ * are patched key by key and keys that went away are null. Arrays, like
+ * the player list, are replaced whole. A result that lacks a part the
+ * client has, such as an info-only refresh, leaves that part as it is.
+ * Results that change nothing are not sent at all.
+ */
+@NotThreadSafe
+class DeltaEncoder {
+
+  /**
+   * Messages about a server between full snapshots, set by
+   * DELTA_FULL_EVERY.
+   */
+  static final int FULL_EVERY = Integer.getInteger("DELTA_FULL_EVERY", 20);
+
+  private final ObjectMapper mapper;
+
+  private final int fullEvery;
+
+  private final Map<InetSocketAddress, Snapshot> snapshots = new HashMap<>();
+
+  DeltaEncoder(ObjectMapper mapper) {
+    this(mapper, FULL_EVERY);
+  }
+
+  DeltaEncoder(ObjectMapper mapper, int fullEvery) {
+    this.mapper = mapper;
+    this.fullEvery = Math.max(fullEvery, 1);
+  }
+
+  /**
+   * @return the message to send about {@code result}, if there is news.
+   */
+  Optional<ObjectNode> encode(QueryResult result) {
+    ObjectNode tree = result.toJsonTree(mapper);
+    Snapshot snapshot = snapshots.get(result.from());
+    if (snapshot == null) {
+      snapshot = new Snapshot(tree);
+      snapshots.put(result.from(), snapshot);
+      return Optional.of(full(snapshot));
+    }
+
+    // parts missing from the result are left alone rather than nulled
+    ObjectNode patch = mapper.createObjectNode();
+    Iterator<Map.Entry<String, JsonNode>> parts = tree.fields();
+    while (parts.hasNext()) {
+      Map.Entry<String, JsonNode> part = parts.next();
+      JsonNode changed = diff(snapshot.tree.get(part.getKey()),
+                              part.getValue());
+      if (changed != null) {
+        patch.set(part.getKey(), changed);
+      }
+    }
+    if (patch.size() == 0) {
+      return Optional.empty();
+    }
+    snapshot.tree.setAll(tree);
+    if (++snapshot.sent >= fullEvery) {
+      snapshot.sent = 0;
+      return Optional.of(full(snapshot));
+    }
+    ObjectNode message = mapper.createObjectNode();
+    message.put("from", result.from().toString());
+    message.set("patch", patch);
+    return Optional.of(message);
+  }
+
+  int size() {
+    return snapshots.size();
+  }
+
+  private ObjectNode full(Snapshot snapshot) {
+    ObjectNode message = snapshot.tree.deepCopy();
+    message.put("full", true);
+    return message;
+  }
+
+  /**
+   * @return what turns {@code old} into {@code now}, null if they are equal.
+   */
+  private JsonNode diff(JsonNode old, JsonNode now) {
+    if (old == null || !old.isObject() || !now.isObject()) {
+      return now.equals(old) ? null : now;
+    }
+    ObjectNode patch = mapper.createObjectNode();
+    Iterator<Map.Entry<String, JsonNode>> fields = now.fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      JsonNode changed = diff(old.get(field.getKey()), field.getValue());
+      if (changed != null) {
+        patch.set(field.getKey(), changed);
+      }
+    }
+    Iterator<String> names = old.fieldNames();
+    while (names.hasNext()) {
+      String name = names.next();
+      if (!now.has(name)) {
+        patch.putNull(name);
+      }
+    }
+    return (patch.size() == 0) ? null : patch;
+  }
+
+  private static final class Snapshot {
+
+    final ObjectNode tree;
+
+    // messages since the last full snapshot
+    int sent;
+
+    Snapshot(ObjectNode tree) {
+      this.tree = tree;
+    }
+  }
+}
@@ -1,11 +1,13 @@
 package com.goodgamenow.source.serverquery.websocketserver;
 
+import com.goodgamenow.source.serverquery.RepollScheduler;
+import com.goodgamenow.source.serverquery.ServerCatalog;
+import com.goodgamenow.source.serverquery.SharedQueryEngine;
+import com.goodgamenow.source.serverquery.Transports;
 import com.google.common.util.concurrent.AbstractIdleService;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
@@ -14,12 +16,20 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.security.cert.CertificateException;
 
 /**
  * A local run server that provides game server statuses. Provides
  * a query request page to allow a user to search and filter game
  * servers on the steam network.
+ * <p>
+ * Servers seen by earlier runs are kept in a {@link ServerCatalog}, set by
+ * CATALOG_FILE and disabled when it is empty. Their last known state is
+ * served straight away after a restart while a {@link RepollScheduler}
+ * keeps querying every one of them in the background, along with every
+ * server answered while running, catalog or not.
  */
 public class GameServerRequestServer extends AbstractIdleService {
 
@@ -27,12 +37,23 @@ public class GameServerRequestServer extends AbstractIdleService {
 
   static final int port = Integer.getInteger("PORT", NOSSL ? 80 : 443);
 
+  static final String CATALOG_FILE =
+      System.getProperty("CATALOG_FILE", "server-catalog.bin");
+
   private static Logger logger = LogManager.getLogger();
 
   private Channel webSocketServerChannel;
 
   private EventLoopGroup group;
 
+  private EventLoopGroup udpLoop;
+
+  private SharedQueryEngine engine;
+
+  private ServerCatalog catalog;
+
+  private RepollScheduler repoll;
+
   public static void main(String[] args) throws Exception {
     GameServerRequestServer gsrs = new GameServerRequestServer();
 
@@ -45,19 +66,34 @@ public class GameServerRequestServer extends AbstractIdleService {
    * Start the service.
    */
   @Override
-  protected void startUp() throws CertificateException, SSLException {
+  protected void startUp()
+      throws CertificateException, SSLException, IOException,
+      InterruptedException {
     // Configure SSL.
     SelfSignedCertificate ssc = new SelfSignedCertificate();
     SslContext sslCtx = NOSSL ? null : SslContext
         .newServerContext(ssc.certificate(), ssc.privateKey());
 
-    this.group = new NioEventLoopGroup();
+    this.group = Transports.newEventLoopGroup();
+    this.catalog = CATALOG_FILE.isEmpty() ? null
+                                          : ServerCatalog.open(
+                                              Paths.get(CATALOG_FILE));
+
+    // every server answered from now on is kept polled, not just those
+    // the catalog knew at startup.
+    this.repoll = RepollScheduler.start(group, catalog);
+    this.udpLoop = Transports.newEventLoopGroup();
+    this.engine = SharedQueryEngine.start(udpLoop, catalog)
+                                   .resultListener(
+                                       result -> repoll.add(result.from()));
 
     this.webSocketServerChannel = new ServerBootstrap()
         .group(this.group)
-        .channel(NioServerSocketChannel.class)
+        .channel(Transports.serverSocketChannelType(group))
         .handler(new LoggingHandler(LogLevel.INFO))
-        .childHandler(new WebSocketServerChannelInitializer(sslCtx, "/ws"))
+        .childHandler(new WebSocketServerChannelInitializer(sslCtx, "/ws",
+                                                            udpLoop, engine,
+                                                            catalog))
         .bind(port)
         .channel();
 
@@ -65,9 +101,12 @@ public class GameServerRequestServer extends AbstractIdleService {
         "://127.0.0.1:" + port + '/';
     logger.info(startupMsg);
 
+    if (catalog != null) {
+      repoll.addAll(catalog.addresses());
+      logger.info("Polling {} servers from the catalog", catalog.size());
+    }
   }
 
-
   /**
    * Stop the service.
    */
@@ -77,6 +116,22 @@ public class GameServerRequestServer extends AbstractIdleService {
     if (webSocketServerChannel != null) {
       webSocketServerChannel.eventLoop().shutdownGracefully();
     }
+    if (engine != null) {
+      engine.close();
+    }
+    if (udpLoop != null) {
+      udpLoop.shutdownGracefully();
+    }
+    if (repoll != null) {
+      repoll.close();
+    }
+    if (catalog != null) {
+      try {
+        catalog.close();
+      } catch (IOException ex) {
+        logger.warn("Could not close server catalog", ex);
+      }
+    }
   }
 
 }
@@ -0,0 +1,161 @@
+package com.goodgamenow.source.serverquery.websocketserver;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.concurrent.PromiseNotifier;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes JSON documents of one connection straight into pooled buffers that
+ * become text frames, without going through strings.
+ * <p>
+ * Unbatched, every document is a frame of its own. Batched, documents are
+ * appended to one JSON array until the channel is flushed, which query
+ * channels do after every read burst, or the array grows past
+ * {@link #MAX_BATCH_BYTES}. The array then goes out as one frame and the
+ * writes of all documents in it complete with that frame.
+ */
+@NotThreadSafe
+class JsonFrameWriter {
+
+  /**
+   * Size past which a batch is sent without waiting for a flush, set by
+   * JSON_BATCH_MAX_BYTES.
+   */
+  static final int MAX_BATCH_BYTES =
+      Integer.getInteger("JSON_BATCH_MAX_BYTES", 64 * 1024);
+
+  /**
+   * Writes one JSON document.
+   */
+  @FunctionalInterface
+  interface Document {
+
+    void writeTo(JsonGenerator generator) throws IOException;
+  }
+
+  private final JsonFactory factory;
+
+  private final boolean batched;
+
+  private final int maxBatchBytes;
+
+  // the open batch, if any
+  private ByteBuf batch;
+
+  private JsonGenerator batchGenerator;
+
+  private final List<ChannelPromise> batchPromises = new ArrayList<>();
+
+  JsonFrameWriter(JsonFactory factory, boolean batched) {
+    this(factory, batched, MAX_BATCH_BYTES);
+  }
+
+  JsonFrameWriter(JsonFactory factory, boolean batched, int maxBatchBytes) {
+    this.factory = factory;
+    this.batched = batched;
+    this.maxBatchBytes = maxBatchBytes;
+  }
+
+  boolean isBatched() {
+    return batched;
+  }
+
+  void write(ChannelHandlerContext ctx,
+             Document document,
+             ChannelPromise promise) {
+    if (batched) {
+      append(ctx, document, promise);
+      return;
+    }
+    ByteBuf buf = ctx.alloc().buffer();
+    try (JsonGenerator generator = generatorFor(buf)) {
+      document.writeTo(generator);
+    } catch (IOException | RuntimeException ex) {
+      buf.release();
+      promise.tryFailure(ex);
+      return;
+    }
+    ctx.write(new TextWebSocketFrame(buf), promise);
+  }
+
+  private void append(ChannelHandlerContext ctx,
+                      Document document,
+                      ChannelPromise promise) {
+    try {
+      if (batch == null) {
+        batch = ctx.alloc().buffer();
+        batchGenerator = generatorFor(batch);
+        batchGenerator.writeStartArray();
+      }
+      document.writeTo(batchGenerator);
+      batchGenerator.flush();
+    } catch (IOException | RuntimeException ex) {
+      // the array can't be trusted anymore
+      promise.tryFailure(ex);
+      discard(ex);
+      return;
+    }
+    batchPromises.add(promise);
+    if (batch.readableBytes() >= maxBatchBytes) {
+      writeBatch(ctx);
+    }
+  }
+
+  /**
+   * Sends the open batch, if any.
+   */
+  void writeBatch(ChannelHandlerContext ctx) {
+    if (batch == null) {
+      return;
+    }
+    ByteBuf buf = batch;
+    ChannelPromise[] promises =
+        batchPromises.toArray(new ChannelPromise[batchPromises.size()]);
+    try {
+      batchGenerator.writeEndArray();
+      batchGenerator.close();
+    } catch (IOException ex) {
+      discard(ex);
+      return;
+    }
+    batch = null;
+    batchGenerator = null;
+    batchPromises.clear();
+
+    ChannelPromise framePromise = ctx.newPromise();
+    framePromise.addListener(
+        new PromiseNotifier<Void, ChannelFuture>(promises));
+    ctx.write(new TextWebSocketFrame(buf), framePromise);
+  }
+
+  /**
+   * Drops the open batch, failing the writes in it.
+   */
+  void discard(Throwable cause) {
+    if (batch != null) {
+      batch.release();
+      batch = null;
+      batchGenerator = null;
+    }
+    batchPromises.forEach(promise -> promise.tryFailure(cause));
+    batchPromises.clear();
+  }
+
+  private JsonGenerator generatorFor(ByteBuf buf) throws IOException {
+    OutputStream out = new ByteBufOutputStream(buf);
+    return factory.createGenerator(out, JsonEncoding.UTF8);
+  }
+}
@@ -1,16 +1,16 @@
 package com.goodgamenow.source.serverquery.websocketserver;
 
-import com.goodgamenow.source.serverquery.MasterClientBootstrap;
+import com.goodgamenow.source.serverquery.MasterListing;
+import com.goodgamenow.source.serverquery.MasterListingCache;
 import com.goodgamenow.source.serverquery.MasterQuery;
-import io.netty.bootstrap.Bootstrap;
+import com.goodgamenow.source.serverquery.ServerCatalog;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.concurrent.Future;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Optional;
 
 /**
  * User: Joe Nellis
@@ -22,23 +22,51 @@ public class MasterQueryBootstrapHandler
 
   private static Logger logger = LogManager.getLogger();
 
-  private final EventLoopGroup udpLoop;
+  private final MasterListingCache listings;
 
-  private final List<Bootstrap> unfinished = new ArrayList<>();
+  private final Optional<ServerCatalog> catalog;
 
-  public MasterQueryBootstrapHandler(EventLoopGroup udpLoop) {
-    this.udpLoop = udpLoop;
+  /**
+   * @param listings listings shared by every connection
+   */
+  public MasterQueryBootstrapHandler(MasterListingCache listings) {
+    this(listings, null);
+  }
+
+  /**
+   * @param listings listings shared by every connection
+   * @param catalog  last known state of servers, sent ahead of the fresh
+   *                 results, may be null
+   */
+  public MasterQueryBootstrapHandler(MasterListingCache listings,
+                                     ServerCatalog catalog) {
+    this.listings = listings;
+    this.catalog = Optional.ofNullable(catalog);
   }
 
   @Override
   protected void channelRead0(ChannelHandlerContext ctx, MasterQuery msg)
       throws Exception {
 
-    Bootstrap bootstrap = new MasterClientBootstrap(udpLoop, msg, ctx);
-    unfinished.add(bootstrap);
-    bootstrap.bind(0)
-             .channel().closeFuture()
-             .addListener(future -> unfinished.remove(bootstrap));
+    Future<MasterListing> listing = listings.get(msg);
+    listing.addListener(future -> {
+      if (future.isSuccess()) {
+        catalog.ifPresent(c -> sendLastKnown(ctx, c, listing.getNow()));
+        listing.getNow().replay(ctx, msg.template);
+      } else {
+        logger.warn("Master listing failed for {}", msg.filter,
+                    future.cause());
+      }
+    });
+  }
+
+  private static void sendLastKnown(ChannelHandlerContext ctx,
+                                    ServerCatalog catalog,
+                                    MasterListing listing) {
+    ctx.executor().execute(() -> {
+      catalog.lastKnown(listing.getPackedResults()).forEach(ctx::write);
+      ctx.flush();
+    });
   }
 
 }
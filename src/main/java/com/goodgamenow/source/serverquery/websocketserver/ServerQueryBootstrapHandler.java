@@ -1,12 +1,27 @@
 package com.goodgamenow.source.serverquery.websocketserver;
 
+import com.goodgamenow.source.serverquery.PendingQueries;
+import com.goodgamenow.source.serverquery.ResultCoalescer;
 import com.goodgamenow.source.serverquery.ServerQuery;
-import com.goodgamenow.source.serverquery.ServerQueryBootstrap;
+import com.goodgamenow.source.serverquery.SharedQueryEngine;
 import io.netty.channel.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.concurrent.TimeUnit;
+
 /**
+ * Sends the server queries of one websocket connection through the
+ * {@link SharedQueryEngine}, so a server many connections ask for at once
+ * is queried once, and gathers their results for the websocket with a
+ * {@link ResultCoalescer} of its own.
+ * <p>
+ * Queries are not sent as they arrive but admitted a batch at a time
+ * while the websocket is writable and the send pacers are not backed up,
+ * so a slow browser slows the scan down instead of piling results up in
+ * its outbound buffer. Queries waiting their turn are kept compactly in
+ * {@link PendingQueries}.
+ * <p>
  * User: Joe Nellis
  * Date: 7/6/2016
  * Time: 10:24 AM
@@ -16,40 +31,63 @@ public class ServerQueryBootstrapHandler
 
   private static Logger logger = LogManager.getLogger();
 
-  private final EventLoopGroup udpLoop;
+  /**
+   * Queries admitted per event loop turn, set by ADMIT_BATCH.
+   */
+  static final int ADMIT_BATCH = Integer.getInteger("ADMIT_BATCH", 256);
+
+  /**
+   * Queries held by the send pacers past which no more are admitted, set
+   * by ADMIT_MAX_QUEUED.
+   */
+  static final int ADMIT_MAX_QUEUED =
+      Integer.getInteger("ADMIT_MAX_QUEUED", 2048);
+
+  private static final long ADMIT_RETRY_MILLIS = 10L;
+
+  private final SharedQueryEngine engine;
+
+  private ResultCoalescer results;
 
-  private ServerQueryBootstrap bootstrap;
+  private final PendingQueries pending = new PendingQueries();
 
-  private Channel serverQueryChannel;
+  private boolean admitScheduled;
 
-  public ServerQueryBootstrapHandler(EventLoopGroup udpLoop) {
-    this.udpLoop = udpLoop;
+  public ServerQueryBootstrapHandler(SharedQueryEngine engine) {
+    this.engine = engine;
   }
 
   @Override
-  public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
-    bootstrap = new ServerQueryBootstrap(udpLoop, ctx);
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    results = new ResultCoalescer(ctx);
   }
 
   @Override
-  public void channelUnregistered(ChannelHandlerContext ctx) throws Exception {
-    bootstrap = null;
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    pending.clear();
+    super.channelInactive(ctx);
   }
 
   @Override
-  public void channelActive(ChannelHandlerContext ctx) throws Exception {
-    if (serverQueryChannel == null || !serverQueryChannel.isOpen()) {
-      serverQueryChannel = bootstrap.bind(0).sync().channel();
+  public void channelWritabilityChanged(ChannelHandlerContext ctx)
+      throws Exception {
+    if (ctx.channel().isWritable()) {
+      scheduleAdmit(ctx);
     }
+    super.channelWritabilityChanged(ctx);
   }
 
+  /**
+   * Takes on the result coalescing a request asked for.
+   */
   @Override
-  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-    ChannelPromise promise = serverQueryChannel
-                                .newPromise()
-                                .addListener(f -> serverQueryChannel = null);
-
-    serverQueryChannel.close(promise);
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt)
+      throws Exception {
+    if (evt instanceof ResultCoalescer.Limits) {
+      results.limits((ResultCoalescer.Limits) evt);
+    } else {
+      super.userEventTriggered(ctx, evt);
+    }
   }
 
   @Override
@@ -61,7 +99,36 @@ public class ServerQueryBootstrapHandler
   @Override
   protected void channelRead0(ChannelHandlerContext ctx, ServerQuery query)
       throws Exception {
-    // must flush each query one at a time.
-    serverQueryChannel.writeAndFlush(query);
+    pending.add(query);
+    scheduleAdmit(ctx);
+  }
+
+  private void scheduleAdmit(ChannelHandlerContext ctx) {
+    if (!admitScheduled && !pending.isEmpty()) {
+      admitScheduled = true;
+      ctx.executor().execute(() -> admit(ctx));
+    }
+  }
+
+  /**
+   * Sends a batch of waiting queries and comes back for the next one, unless
+   * the websocket became unwritable, which resumes admission once it is
+   * writable again.
+   */
+  private void admit(ChannelHandlerContext ctx) {
+    admitScheduled = false;
+    if (!ctx.channel().isActive() || !ctx.channel().isWritable()) {
+      return;
+    }
+    if (engine.getSendQueueDepth() >= ADMIT_MAX_QUEUED) {
+      admitScheduled = true;
+      ctx.executor().schedule(() -> admit(ctx), ADMIT_RETRY_MILLIS,
+                              TimeUnit.MILLISECONDS);
+      return;
+    }
+    for (int i = 0; i < ADMIT_BATCH && !pending.isEmpty(); i++) {
+      engine.submit(pending.poll(), results);
+    }
+    scheduleAdmit(ctx);
   }
 }
@@ -2,39 +2,112 @@ package com.goodgamenow.source.serverquery.websocketserver;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.goodgamenow.source.serverquery.MasterQuery;
 import com.goodgamenow.source.serverquery.MasterQuery.Region;
+import com.goodgamenow.source.serverquery.ResultCoalescer;
 import com.goodgamenow.source.serverquery.ServerQuery;
 import com.goodgamenow.source.serverquery.response.QueryResult;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Optional;
 
 import static com.goodgamenow.source.serverquery.MasterQuery.Region.WORLD;
 
 /**
  * WebSockets proxy for game server info. Default homepage provides
  * form functions to query via web sockets.
+ * <p>
+ * A request with {@code "delta":true} switches the connection to patches,
+ * see {@link DeltaEncoder}, for the rest of its life. One with
+ * {@code "binary":true} switches it to binary frames instead, see
+ * {@link BinaryResultCodec}, which takes precedence over patches. One with
+ * {@code "batch":true} packs the JSON documents written between flushes
+ * into one array frame, see {@link JsonFrameWriter}. One with
+ * {@code "coalesce":{"maxResults":n, "lingerMillis":m}} batches as well
+ * and changes how many results are gathered between flushes, see
+ * {@link ResultCoalescer}; limits left out keep their defaults.
  */
 public class WebSocketHandler
     extends MessageToMessageCodec<TextWebSocketFrame, QueryResult> {
 
   private static Logger logger = LogManager.getLogger();
 
-  ObjectMapper mapper = new ObjectMapper();
+  // thread safe once configured, shared by every connection
+  static final ObjectMapper MAPPER = new ObjectMapper();
+
+  ObjectMapper mapper = MAPPER;
+
+  private JsonFrameWriter json = new JsonFrameWriter(MAPPER.getFactory(),
+                                                     false);
+
+  private Optional<DeltaEncoder> delta = Optional.empty();
+
+  private Optional<BinaryResultCodec.Encoder> binary = Optional.empty();
+
+  /**
+   * JSON results are written here rather than encoded, since a patch that
+   * changes nothing or a result joining a batch produces no frame, which an
+   * encoder can't.
+   */
+  @Override
+  public void write(ChannelHandlerContext ctx,
+                    Object msg,
+                    ChannelPromise promise) throws Exception {
+    if (!(msg instanceof QueryResult) || binary.isPresent()) {
+      super.write(ctx, msg, promise);
+      return;
+    }
+    QueryResult result = (QueryResult) msg;
+    if (!delta.isPresent()) {
+      json.write(ctx, generator -> result.writeJson(generator, mapper),
+                 promise);
+      return;
+    }
+    Optional<ObjectNode> patch = delta.get().encode(result);
+    if (patch.isPresent()) {
+      json.write(ctx, generator -> mapper.writeTree(generator, patch.get()),
+                 promise);
+    } else {
+      promise.trySuccess();
+    }
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) throws Exception {
+    json.writeBatch(ctx);
+    ctx.flush();
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    json.discard(new IOException("Connection closed."));
+    super.handlerRemoved(ctx);
+  }
 
   @Override
   protected void encode(ChannelHandlerContext ctx,
                         QueryResult result,
                         List<Object> out) throws Exception {
-    String json = result.toJson(mapper);
-    TextWebSocketFrame textWebSocketFrame = new TextWebSocketFrame(json);
-    out.add(textWebSocketFrame);
+    // only binary results get this far
+    ByteBuf buf = ctx.alloc().buffer();
+    try {
+      binary.get().encode(result, buf);
+    } catch (RuntimeException ex) {
+      buf.release();
+      throw ex;
+    }
+    out.add(new BinaryWebSocketFrame(buf));
   }
 
 
@@ -49,6 +122,23 @@ public class WebSocketHandler
     boolean needsRules = false;
     String serverRequestType = params.get("type").asText("unknown");
     String queryId = params.get("id").asText(ServerQuery.NO_ID);
+    if (params.path("delta").asBoolean(false) && !delta.isPresent()) {
+      delta = Optional.of(new DeltaEncoder(mapper));
+    }
+    if (params.path("binary").asBoolean(false) && !binary.isPresent()) {
+      binary = Optional.of(new BinaryResultCodec.Encoder());
+    }
+    JsonNode coalesce = params.path("coalesce");
+    if (coalesce.isObject()) {
+      ResultCoalescer.Limits defaults = ResultCoalescer.DEFAULT_LIMITS;
+      ctx.fireUserEventTriggered(new ResultCoalescer.Limits(
+          coalesce.path("maxResults").asInt(defaults.maxResults),
+          coalesce.path("lingerMillis").asLong(defaults.lingerMillis)));
+    }
+    if ((params.path("batch").asBoolean(false) || coalesce.isObject()) &&
+        !json.isBatched()) {
+      json = new JsonFrameWriter(MAPPER.getFactory(), true);
+    }
 
     switch (serverRequestType) {
       case "master":
@@ -56,6 +146,7 @@ public class WebSocketHandler
                                              .asText(WORLD.name()));
         String filter = params.get("filter").asText();
         needsRules = params.get("needsRules").asBoolean();
+        boolean pipelined = params.path("pipelined").asBoolean(false);
         ServerQuery template =
             new ServerQuery(new InetSocketAddress("127.0.0.1", 0),
                             queryId,
@@ -65,7 +156,10 @@ public class WebSocketHandler
                             ServerQuery.ServerRulesRequest.NEEDED :
                             ServerQuery.ServerRulesRequest.NOT_NEEDED,
                             ServerQuery.Retries.MAX_RETRIES,
-                            ServerQuery.Challenge.RESET);
+                            ServerQuery.Challenge.RESET,
+                            pipelined ?
+                            ServerQuery.Pipelining.PIPELINED :
+                            ServerQuery.Pipelining.SEQUENTIAL);
         MasterQuery mq = new MasterQuery(region, filter, template);
 
         ctx.fireChannelRead(mq);
@@ -1,5 +1,6 @@
 package com.goodgamenow.source.serverquery.websocketserver;
 
+import com.goodgamenow.source.serverquery.QueryMetrics;
 import groovy.lang.Writable;
 import groovy.text.Template;
 import groovy.text.markup.MarkupTemplateEngine;
@@ -33,6 +34,10 @@ public class WebSocketIndexPageHandler
 
   private static Logger logger = LogManager.getLogger();
 
+  // version of the Prometheus text format QueryMetrics writes
+  private static final String METRICS_CONTENT_TYPE =
+      "text/plain; version=0.0.4; charset=utf-8";
+
   private final String webSocketPath;
 
   private final MarkupTemplateEngine engine;
@@ -71,7 +76,7 @@ public class WebSocketIndexPageHandler
       return;
     }
 
-    // Send the demo page and favicon.ico
+    // Send the demo page, metrics and favicon.ico
     if ("/".equals(req.uri())) {
 
       Template template = engine.createTemplateByPath("index.tpl");
@@ -91,6 +96,18 @@ public class WebSocketIndexPageHandler
       sendHttpResponse(ctx, req, res);
       return;
     }
+    if ("/metrics".equals(req.uri())) {
+      ByteBuf content = Unpooled.copiedBuffer(QueryMetrics.SHARED.scrape(),
+                                              CharsetUtil.UTF_8);
+      FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, content);
+
+      res.headers()
+         .set(HttpHeaderNames.CONTENT_TYPE, METRICS_CONTENT_TYPE)
+         .set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+
+      sendHttpResponse(ctx, req, res);
+      return;
+    }
     if ("/favicon.ico".equals(req.uri())) {
       FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, NOT_FOUND);
       sendHttpResponse(ctx, req, res);
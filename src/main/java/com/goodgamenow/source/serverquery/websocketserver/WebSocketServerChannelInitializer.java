@@ -1,9 +1,11 @@
 package com.goodgamenow.source.serverquery.websocketserver;
 
+import com.goodgamenow.source.serverquery.MasterListingCache;
+import com.goodgamenow.source.serverquery.ServerCatalog;
+import com.goodgamenow.source.serverquery.SharedQueryEngine;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
@@ -32,12 +34,29 @@ public class WebSocketServerChannelInitializer
 
   private final EventLoopGroup udpLoop;
 
+  private final MasterListingCache masterListings;
+
+  private final ServerCatalog catalog;
+
+  private final SharedQueryEngine engine;
+
+  /**
+   * @param udpLoop runs the master queries, owned by the caller
+   * @param engine  sends the server queries of every connection, owned by
+   *                the caller
+   * @param catalog last known state of servers, may be null
+   */
   public WebSocketServerChannelInitializer(SslContext sslContext,
-                                           String webSocketPath) {
+                                           String webSocketPath,
+                                           EventLoopGroup udpLoop,
+                                           SharedQueryEngine engine,
+                                           ServerCatalog catalog) {
+    this.catalog = catalog;
     this.sslContext = sslContext;
     this.webSocketPath = webSocketPath;
-    this.udpLoop = new NioEventLoopGroup();
-
+    this.udpLoop = udpLoop;
+    this.masterListings = new MasterListingCache(udpLoop);
+    this.engine = engine;
   }
 
   @Override
@@ -54,8 +73,8 @@ public class WebSocketServerChannelInitializer
             .addLast(new WebSocketIndexPageHandler(webSocketPath))
             .addLast(new LoggingHandler(LogLevel.DEBUG))
             .addLast(new WebSocketHandler())
-            .addLast(new MasterQueryBootstrapHandler(udpLoop))
-            .addLast(new ServerQueryBootstrapHandler(udpLoop))
+            .addLast(new MasterQueryBootstrapHandler(masterListings, catalog))
+            .addLast(new ServerQueryBootstrapHandler(engine))
     ;
   }
 }
@@ -0,0 +1,54 @@
+package com.goodgamenow.source.serverquery
+
+import spock.lang.Specification
+
+class ChallengeCacheTest extends Specification {
+
+  static final InetSocketAddress SERVER = new InetSocketAddress("10.0.0.1", 27015)
+
+  def "unassigned challenges are seeded from the cache"() {
+    given:
+    def cache = new ChallengeCache(1000, 16)
+    cache.put(SERVER, 42)
+
+    expect:
+    cache.seed(SERVER, ServerQuery.Challenge.RESET).number() == 42
+    cache.seed(SERVER, { 7 } as ServerQuery.Challenge).number() == 7
+    cache.seed(new InetSocketAddress("10.0.0.2", 27015),
+               ServerQuery.Challenge.RESET).number() == 0
+  }
+
+  def "a new challenge replaces the old one"() {
+    given:
+    def cache = new ChallengeCache(1000, 16)
+
+    when:
+    cache.put(SERVER, 42)
+    cache.put(SERVER, 43)
+
+    then:
+    cache.seed(SERVER, ServerQuery.Challenge.RESET).number() == 43
+    cache.size() == 1
+  }
+
+  def "challenges expire after the ttl"() {
+    given:
+    def cache = new ChallengeCache(50, 16)
+    cache.put(SERVER, 42)
+
+    when:
+    Thread.sleep(100)
+
+    then:
+    cache.seed(SERVER, ServerQuery.Challenge.RESET).number() == 0
+  }
+
+  def "a zero ttl disables the cache"() {
+    given:
+    def cache = new ChallengeCache(0, 16)
+    cache.put(SERVER, 42)
+
+    expect:
+    cache.seed(SERVER, ServerQuery.Challenge.RESET).number() == 0
+  }
+}
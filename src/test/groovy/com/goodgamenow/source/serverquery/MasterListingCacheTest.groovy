@@ -0,0 +1,98 @@
+package com.goodgamenow.source.serverquery
+
+import io.netty.channel.DefaultEventLoop
+import io.netty.channel.EventLoop
+import io.netty.util.concurrent.ImmediateEventExecutor
+import io.netty.util.concurrent.Promise
+import spock.lang.Specification
+
+class MasterListingCacheTest extends Specification {
+
+  static final MasterQuery QUERY = new MasterQuery(MasterQuery.Region.USWEST, "\\appid\\440")
+
+  EventLoop eventLoop = new DefaultEventLoop()
+
+  List<Promise<MasterListing>> fetched = []
+
+  def cleanup() {
+    eventLoop.shutdownGracefully()
+  }
+
+  MasterListingCache cache(long ttlMillis) {
+    new MasterListingCache({ MasterQuery query ->
+      // listeners run as soon as the promise completes
+      Promise<MasterListing> promise = ImmediateEventExecutor.INSTANCE.newPromise()
+      fetched << promise
+      promise
+    }, ttlMillis, 16)
+  }
+
+  MasterListing listing(boolean complete) {
+    new MasterListing(eventLoop, QUERY) {
+      @Override
+      boolean isComplete() {
+        complete
+      }
+    }
+  }
+
+  def "identical queries share one listing"() {
+    given:
+    def cache = cache(1000)
+
+    when:
+    def first = cache.get(QUERY)
+    def second = cache.get(new MasterQuery(MasterQuery.Region.USWEST, "\\appid\\440"))
+    fetched[0].setSuccess(listing(true))
+    def third = cache.get(QUERY)
+
+    then:
+    fetched.size() == 1
+    first.is(second)
+    first.is(third)
+    cache.get(new MasterQuery(MasterQuery.Region.EUROPE, "\\appid\\440")) != first
+    fetched.size() == 2
+  }
+
+  def "incomplete or failed listings are fetched again"() {
+    given:
+    def cache = cache(1000)
+
+    when:
+    cache.get(QUERY)
+    fetched[0].setSuccess(listing(false))
+    cache.get(QUERY)
+    fetched[1].setFailure(new IOException("lost"))
+    cache.get(QUERY)
+
+    then:
+    fetched.size() == 3
+  }
+
+  def "listings expire after the ttl"() {
+    given:
+    def cache = cache(50)
+    cache.get(QUERY)
+    fetched[0].setSuccess(listing(true))
+
+    when:
+    Thread.sleep(100)
+    cache.get(QUERY)
+
+    then:
+    fetched.size() == 2
+  }
+
+  def "a zero ttl disables the cache"() {
+    given:
+    def cache = cache(0)
+
+    when:
+    cache.get(QUERY)
+    cache.get(QUERY)
+
+    then:
+    fetched.size() == 2
+    cache.size() == 0
+  }
+}
@@ -0,0 +1,22 @@
+package com.goodgamenow.source.serverquery
+
+import com.goodgamenow.source.serverquery.MasterQuery.Region
+import spock.lang.Specification
+
+class MasterListingTest extends Specification {
+
+  def "a world query fans out to every region and world itself"() {
+    when:
+    def regions = MasterListing.regionsOf(new MasterQuery(Region.WORLD, "\\appid\\440"))
+
+    then: "servers left at the default region are only listed under world"
+    regions == [Region.USEAST, Region.USWEST, Region.SAMERICA, Region.EUROPE,
+                Region.ASIA, Region.AUSTRALIA, Region.MIDEAST, Region.AFRICA,
+                Region.WORLD]
+  }
+
+  def "a region query stays in its region"() {
+    expect:
+    MasterListing.regionsOf(new MasterQuery(Region.EUROPE, "\\appid\\440")) == [Region.EUROPE]
+  }
+}
@@ -0,0 +1,121 @@
+package com.goodgamenow.source.serverquery
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.channel.socket.DatagramPacket
+import io.netty.util.CharsetUtil
+import io.netty.util.Timeout
+import io.netty.util.Timer
+import io.netty.util.TimerTask
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class MasterQueryHandlerTest extends Specification {
+
+  static final InetSocketAddress MASTER = new InetSocketAddress("127.0.0.1", 27011)
+
+  // deadlines fire only when the test runs them
+  List<TimerTask> deadlines = []
+
+  Timer timer = [newTimeout: { TimerTask task, long delay, TimeUnit unit ->
+    deadlines << task
+    [cancel: { true }] as Timeout
+  }] as Timer
+
+  PackedAddressSet seen = new PackedAddressSet()
+
+  MasterQueryHandler handler =
+      new MasterQueryHandler(new MasterQuery(MasterQuery.Region.USWEST, "\\appid\\440"),
+                             null, seen, MASTER, timer, 1000)
+
+  EmbeddedChannel channel = new EmbeddedChannel(handler)
+
+  def cleanup() {
+    channel.finishAndReleaseAll()
+  }
+
+  static DatagramPacket page(List<List<Integer>> entries) {
+    ByteBuf buf = Unpooled.buffer()
+    buf.writeInt(-1).writeShort(26122)
+    entries.each { entry ->
+      entry.take(4).each { buf.writeByte(it) }
+      buf.writeShort(entry[4])
+    }
+    new DatagramPacket(buf, MASTER)
+  }
+
+  String cursor() {
+    DatagramPacket request = channel.readOutbound()
+    ByteBuf buf = request.content()
+    buf.skipBytes(2)
+    String cursor = buf.readCharSequence(buf.bytesBefore((byte) 0),
+                                         CharsetUtil.US_ASCII)
+    request.release()
+    cursor
+  }
+
+  def "entries are decoded to packed addresses and paged by the last one"() {
+    expect:
+    cursor() == "0.0.0.0:0"
+
+    when:
+    channel.writeInbound(page([[10, 0, 0, 1, 27015], [192, 168, 255, 254, 27016]]))
+
+    then:
+    cursor() == "192.168.255.254:27016"
+    handler.packedResults == [PackedAddresses.pack(0x0A000001, 27015),
+                              PackedAddresses.pack(0xC0A8FFFE as int, 27016)] as long[]
+
+    when: "the end of list marker closes the channel"
+    channel.writeInbound(page([[10, 0, 0, 2, 27015], [0, 0, 0, 0, 0]]))
+
+    then:
+    !channel.isOpen()
+    handler.results == ["10.0.0.1:27015", "192.168.255.254:27016", "10.0.0.2:27015"]
+    handler.isComplete()
+  }
+
+  def "a lost page is asked for again until out of retries"() {
+    given:
+    cursor()
+    channel.writeInbound(page([[10, 0, 0, 1, 27015]]))
+    cursor()
+
+    when:
+    deadlines.last().run(null)
+    channel.runPendingTasks()
+
+    then:
+    cursor() == "10.0.0.1:27015"
+
+    when:
+    MasterQueryHandler.PAGE_RETRIES.times {
+      deadlines.last().run(null)
+      channel.runPendingTasks()
+    }
+
+    then:
+    !channel.isOpen()
+    !handler.isComplete()
+    handler.results == ["10.0.0.1:27015"]
+  }
+
+  def "repeated pages and servers already seen are not reported again"() {
+    given:
+    seen.add(PackedAddresses.pack(0x0A000009, 27015))
+    cursor()
+    def first = page([[10, 0, 0, 1, 27015], [10, 0, 0, 9, 27015]])
+
+    when:
+    channel.writeInbound(first.retainedDuplicate())
+    channel.writeInbound(first)
+
+    then: "the repeat does not ask for the next page twice"
+    cursor() == "10.0.0.9:27015"
+    channel.readOutbound() == null
+    handler.packedResults == [PackedAddresses.pack(0x0A000009, 27015),
+                              PackedAddresses.pack(0x0A000001, 27015)] as long[]
+  }
+}
@@ -0,0 +1,32 @@
+package com.goodgamenow.source.serverquery
+
+import spock.lang.Specification
+
+class PackedAddressSetTest extends Specification {
+
+  def "addresses are kept once in the order first added"() {
+    given:
+    def set = new PackedAddressSet(8)
+    def addresses = (0..<5000).collect { PackedAddresses.pack(0x0A000000 + (it >> 4), 27015 + (it & 15)) }
+
+    when:
+    def added = addresses.collect { set.add(it) }
+    def again = addresses.collect { set.add(it) }
+
+    then:
+    added.every()
+    !again.any()
+    set.size() == 5000
+    set.toArray() == addresses as long[]
+    set.contains(addresses[4321])
+    !set.contains(PackedAddresses.pack(0x0B000000, 27015))
+  }
+
+  def "negative values are refused"() {
+    when:
+    new PackedAddressSet().add(PackedAddresses.NOT_PACKED)
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+}
@@ -0,0 +1,55 @@
+package com.goodgamenow.source.serverquery
+
+import spock.lang.Specification
+
+class PendingQueriesTest extends Specification {
+
+  PendingQueries pending = new PendingQueries()
+
+  static ServerQuery query(String address, String id) {
+    ServerQuery.createFromTemplate(
+        ServerQueryBootstrap.createSocketAddressFromString(address).get(),
+        ServerQuery.DEFAULT_SERVER_QUERY_TEMPLATE, id)
+  }
+
+  def "queries come back in order with their options"() {
+    given:
+    def queries = (1..200).collect { query("10.0.${it >> 8}.${it & 255}:27015", "a") } +
+        [query("10.1.0.1:27015", "b"), query("10.1.0.2:27016", "a")]
+
+    when:
+    queries.each { pending.add(it) }
+
+    then:
+    pending.size() == 202
+
+    when:
+    def polled = []
+    while (!pending.isEmpty()) {
+      polled << pending.poll()
+    }
+
+    then:
+    polled*.address == queries*.address
+    polled*.queryId == queries*.queryId
+    polled.every { it.playerInfoRequest.isNeeded() && !it.serverRulesRequest.isNeeded() }
+    pending.poll() == null
+    pending.size() == 0
+  }
+
+  def "queries that can't be packed are kept as they are"() {
+    given:
+    def unresolved = new ServerQuery(InetSocketAddress.createUnresolved("example.com", 27015))
+
+    when:
+    pending.add(query("10.0.0.1:27015", "a"))
+    pending.add(unresolved)
+    pending.add(query("10.0.0.2:27015", "a"))
+
+    then:
+    pending.poll().address.port == 27015
+    pending.poll().is(unresolved)
+    pending.poll().address == new InetSocketAddress("10.0.0.2", 27015)
+    pending.isEmpty()
+  }
+}
@@ -0,0 +1,86 @@
+package com.goodgamenow.source.serverquery
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class QueryMetricsTest extends Specification {
+
+  QueryMetrics metrics = new QueryMetrics()
+
+  def "series of one name share their help and type"() {
+    given:
+    def info = metrics.counter("sent_total", "Requests sent.", 'type="info"')
+    def rules = metrics.counter("sent_total", null, 'type="rules"')
+    def level = metrics.gauge("in_flight", "Queries in flight.")
+
+    when:
+    3.times { info.inc() }
+    rules.inc()
+    level.add(5)
+    level.add(-2)
+
+    then:
+    metrics.scrape() ==
+        '# HELP sent_total Requests sent.\n' +
+        '# TYPE sent_total counter\n' +
+        'sent_total{type="info"} 3\n' +
+        'sent_total{type="rules"} 1\n' +
+        '# HELP in_flight Queries in flight.\n' +
+        '# TYPE in_flight gauge\n' +
+        'in_flight 3\n'
+  }
+
+  def "histogram buckets are cumulative"() {
+    given:
+    def rtt = metrics.histogram("rtt_seconds", "Round trips.", 0.01, 0.1)
+
+    when:
+    rtt.recordMillis(5)
+    rtt.recordMillis(10)
+    rtt.recordMillis(50)
+    rtt.record(TimeUnit.SECONDS.toNanos(2))
+
+    then:
+    rtt.count() == 4
+    metrics.scrape() ==
+        '# HELP rtt_seconds Round trips.\n' +
+        '# TYPE rtt_seconds histogram\n' +
+        'rtt_seconds_bucket{le="0.01"} 2\n' +
+        'rtt_seconds_bucket{le="0.1"} 3\n' +
+        'rtt_seconds_bucket{le="+Inf"} 4\n' +
+        'rtt_seconds_sum 2.065\n' +
+        'rtt_seconds_count 4\n'
+  }
+
+  def "a name can't change type"() {
+    given:
+    metrics.counter("things", null, null)
+
+    when:
+    metrics.gauge("things", null)
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+
+  def "reconcile maps keep the in flight gauge"() {
+    given:
+    def map = new ReconcileMap<String>()
+    def before = QueryMetrics.RECONCILE_ENTRIES.sum()
+
+    when:
+    map.put(new InetSocketAddress("10.0.0.1", 27015), "a")
+    map.put(new InetSocketAddress("10.0.0.2", 27015), "b")
+    map.remove(new InetSocketAddress("10.0.0.1", 27015))
+
+    then:
+    QueryMetrics.RECONCILE_ENTRIES.sum() - before == 1
+
+    when:
+    map.clear()
+
+    then:
+    QueryMetrics.RECONCILE_ENTRIES.sum() == before
+  }
+}
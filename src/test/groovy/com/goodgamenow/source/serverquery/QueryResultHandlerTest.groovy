@@ -0,0 +1,184 @@
+package com.goodgamenow.source.serverquery
+
+import com.goodgamenow.source.serverquery.response.QueryResult
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.channel.socket.DatagramPacket
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+
+import static com.goodgamenow.source.serverquery.ServerQueryCodecTest.*
+
+/**
+ * Drives queries through the codec and result handler with hand built
+ * responses, watching which requests go out.
+ */
+class QueryResultHandlerTest extends Specification {
+
+  static final int CHALLENGE = 0x5A3C1E0F
+
+  Map<InetSocketAddress, QueryState> reconcileMap = new ReconcileMap<>()
+
+  Map<InetSocketAddress, QueryResult> resultMap = new ConcurrentHashMap<>()
+
+  EmbeddedChannel channel = new EmbeddedChannel(
+      new ServerQueryCodec(),
+      new QueryResultHandler(reconcileMap, resultMap, null))
+
+  static ServerQuery query(ServerQuery.Pipelining pipelining) {
+    new ServerQuery(SERVER,
+                    ServerQuery.NO_ID,
+                    ServerQuery.ServerInfoRequest.NEEDED,
+                    ServerQuery.PlayerInfoRequest.NEEDED,
+                    ServerQuery.ServerRulesRequest.NEEDED,
+                    ServerQuery.Retries.MAX_RETRIES,
+                    ServerQuery.Challenge.RESET,
+                    pipelining)
+  }
+
+  static DatagramPacket challengePacket() {
+    ByteBuf buf = Unpooled.buffer().writeInt(-1).writeByte(0x41)
+                          .writeInt(CHALLENGE)
+    new DatagramPacket(buf, LOCAL, SERVER)
+  }
+
+  static DatagramPacket playerPacket() {
+    ByteBuf buf = le(Unpooled.buffer())
+    buf.writeInt(-1).writeByte(0x44).writeByte(1)
+    buf.writeByte(0)
+    writeString(buf, "player")
+    buf.writeInt(10).writeFloat(60f)
+    new DatagramPacket(buf, LOCAL, SERVER)
+  }
+
+  static DatagramPacket rulesPacket() {
+    new DatagramPacket(Unpooled.wrappedBuffer(rulesPayload(3)), LOCAL, SERVER)
+  }
+
+  /**
+   * @return [request type, challenge] of each datagram written, in order.
+   */
+  List<List<Integer>> sent() {
+    def requests = []
+    DatagramPacket packet
+    while ((packet = channel.readOutbound()) != null) {
+      ByteBuf buf = packet.content()
+      int type = buf.getByte(4)
+      requests << [type, type == 0x54 ? null : buf.getInt(5)]
+      packet.release()
+    }
+    requests
+  }
+
+  def send(ServerQuery query) {
+    reconcileMap.put(query.address, QueryState.of(query))
+    channel.writeOutbound(query)
+  }
+
+  def "pipelined query sends every request and resends only on a new challenge"() {
+    when:
+    send(query(ServerQuery.Pipelining.PIPELINED))
+
+    then:
+    sent() == [[0x54, null], [0x55, 0], [0x56, 0]]
+
+    when: "the player and rules requests are both answered with a challenge"
+    channel.writeInbound(challengePacket())
+    def afterFirst = sent()
+    channel.writeInbound(challengePacket())
+    def afterSecond = sent()
+
+    then:
+    afterFirst == [[0x55, CHALLENGE], [0x56, CHALLENGE]]
+    afterSecond == []
+
+    when:
+    channel.writeInbound(serverInfoPacket(0))
+    channel.writeInbound(rulesPacket())
+
+    then: "responses to requests in flight send nothing"
+    sent() == []
+    reconcileMap[SERVER].needs(QueryState.PLAYER_INFO)
+
+    when:
+    channel.writeInbound(playerPacket())
+
+    then:
+    sent() == []
+    reconcileMap.isEmpty()
+    with(resultMap[SERVER]) {
+      getServerInfo().isPresent()
+      playerInfos().isPresent()
+      serverRules().get().properties.size() == 3
+    }
+  }
+
+  def "late replies to an empty server's player request are dropped"() {
+    given:
+    def results = []
+    channel = new EmbeddedChannel(
+        new ServerQueryCodec(),
+        new QueryResultHandler(reconcileMap, resultMap, null, null,
+                               { results << it }))
+    def query = new ServerQuery(SERVER,
+                                ServerQuery.NO_ID,
+                                ServerQuery.ServerInfoRequest.NEEDED,
+                                ServerQuery.PlayerInfoRequest.NEEDED,
+                                ServerQuery.ServerRulesRequest.NOT_NEEDED,
+                                ServerQuery.Retries.MAX_RETRIES,
+                                ServerQuery.Challenge.RESET,
+                                ServerQuery.Pipelining.PIPELINED)
+
+    when:
+    send(query)
+    sent()
+    channel.writeInbound(serverInfoPacket(0, 0))
+
+    then: "no players finishes the query with the player request in flight"
+    reconcileMap.isEmpty()
+    results.size() == 1
+
+    when:
+    channel.writeInbound(challengePacket())
+    channel.writeInbound(playerPacket())
+
+    then:
+    results.size() == 1
+    resultMap.isEmpty()
+    sent() == []
+  }
+
+  def "sequential query waits for each response"() {
+    when:
+    send(query(ServerQuery.Pipelining.SEQUENTIAL))
+    def first = sent()
+    channel.writeInbound(serverInfoPacket(0))
+    def second = sent()
+    channel.writeInbound(challengePacket())
+    def third = sent()
+
+    then:
+    first == [[0x54, null]]
+    second == [[0x55, 0]]
+    third == [[0x55, CHALLENGE]]
+  }
+
+  def "a cached challenge saves the challenge round trip"() {
+    given: "an earlier scan recorded the server's challenge"
+    channel.writeInbound(challengePacket())
+    def template = query(ServerQuery.Pipelining.SEQUENTIAL)
+
+    when:
+    send(ServerQuery.createFromTemplate(SERVER, template, "rescan"))
+    def first = sent()
+    channel.writeInbound(serverInfoPacket(0))
+    def second = sent()
+
+    then:
+    ChallengeCache.SHARED.seed(SERVER, ServerQuery.Challenge.RESET).number() == CHALLENGE
+    first == [[0x54, null]]
+    second == [[0x55, CHALLENGE]]
+  }
+}
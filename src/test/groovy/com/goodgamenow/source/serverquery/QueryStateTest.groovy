@@ -0,0 +1,76 @@
+package com.goodgamenow.source.serverquery
+
+import spock.lang.Specification
+
+class QueryStateTest extends Specification {
+
+  static final InetSocketAddress SERVER = new InetSocketAddress("10.0.0.3", 27015)
+
+  def query() {
+    new ServerQuery(SERVER,
+                    "test",
+                    ServerQuery.ServerInfoRequest.NEEDED,
+                    ServerQuery.PlayerInfoRequest.NEEDED,
+                    ServerQuery.ServerRulesRequest.NOT_NEEDED,
+                    ServerQuery.Retries.MAX_RETRIES,
+                    { 7 } as ServerQuery.Challenge,
+                    ServerQuery.Pipelining.PIPELINED)
+  }
+
+  def "state is read from the query and viewed back"() {
+    when:
+    def state = QueryState.of(query())
+    def view = state.view()
+
+    then:
+    state.needs(QueryState.SERVER_INFO)
+    state.needs(QueryState.PLAYER_INFO)
+    !state.needs(QueryState.SERVER_RULES)
+    state.isPipelined()
+    state.retries() == 3
+    state.challenge() == 7
+
+    view.serverInfoRequest.isNeeded()
+    view.playerInfoRequest.isNeeded()
+    !view.serverRulesRequest.isNeeded()
+    view.pipelining.isPipelined()
+    view.retries.remaining() == 3
+    view.challenge.number() == 7
+  }
+
+  def "requests are marked done in place"() {
+    given:
+    def state = QueryState.of(query())
+
+    when:
+    state.done(QueryState.SERVER_INFO)
+
+    then:
+    !state.isFinished()
+    !state.view().serverInfoRequest.isNeeded()
+    !state.view(QueryState.PLAYER_INFO).playerInfoRequest.isNeeded()
+
+    when:
+    state.done(QueryState.PLAYER_INFO)
+
+    then:
+    state.isFinished()
+    state.isPipelined()
+  }
+
+  def "retries count down and start over on a response"() {
+    given:
+    def state = QueryState.of(query())
+
+    expect:
+    (1..3).every { state.retry() }
+    !state.retry()
+    state.view().retries.is(ServerQuery.Retries.of(0))
+
+    when:
+    state.resetRetries()
+
+    then:
+    state.retries() == 3
+  }
+}
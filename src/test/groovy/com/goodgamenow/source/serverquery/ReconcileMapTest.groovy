@@ -0,0 +1,88 @@
+package com.goodgamenow.source.serverquery
+
+import spock.lang.Specification
+
+class ReconcileMapTest extends Specification {
+
+  static InetSocketAddress ipv4 = new InetSocketAddress("203.0.113.250", 27015)
+
+  static InetSocketAddress ipv6 = new InetSocketAddress("2001:db8::1", 27015)
+
+  static InetSocketAddress unresolved =
+      InetSocketAddress.createUnresolved("game.example", 27015)
+
+  def "addresses pack and unpack"() {
+    when:
+    long packed = PackedAddresses.pack(address)
+
+    then:
+    packed >= 0
+    PackedAddresses.port(packed) == address.port
+    PackedAddresses.unpack(packed) == address
+
+    where:
+    address << [ipv4,
+                new InetSocketAddress("0.0.0.1", 0),
+                new InetSocketAddress("255.255.255.255", 65535)]
+  }
+
+  def "only resolved IPv4 addresses are packed"() {
+    expect:
+    PackedAddresses.pack(ipv6) == PackedAddresses.NOT_PACKED
+    PackedAddresses.pack(unresolved) == PackedAddresses.NOT_PACKED
+  }
+
+  def "queries are kept for every kind of address"() {
+    given:
+    def map = new ReconcileMap(4)
+    def query = new ServerQuery(address)
+
+    when:
+    map.put(address, query)
+
+    then:
+    map.get(address).is(query)
+    map.get(new InetSocketAddress(address.hostString, address.port)).is(query)
+    map.size() == 1
+    map.entrySet()*.key == [address]
+
+    when:
+    def updated = new ServerQuery(address)
+    map.putIfAbsent(address, updated)
+
+    then: "an existing entry is kept"
+    map.get(address).is(query)
+
+    when:
+    map.computeIfPresent(address, { a, q -> updated })
+
+    then:
+    map.get(address).is(updated)
+
+    when:
+    map.computeIfPresent(address, { a, q -> null })
+
+    then:
+    map.isEmpty()
+    !map.containsKey(address)
+
+    where:
+    address << [ipv4, ipv6, unresolved]
+  }
+
+  def "many queries in flight grow the map"() {
+    given:
+    def map = new ReconcileMap()
+    def addresses = (0..<100_000).collect {
+      PackedAddresses.unpack(PackedAddresses.pack(0x0A000000 + it, 27015))
+    }
+
+    when:
+    addresses.each { map.put(it, new ServerQuery(it)) }
+    addresses.take(50_000).each { map.remove(it) }
+
+    then:
+    map.size() == 50_000
+    addresses.drop(50_000).every { map.get(it).address == it }
+  }
+}
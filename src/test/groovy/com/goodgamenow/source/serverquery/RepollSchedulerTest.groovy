@@ -0,0 +1,205 @@
+package com.goodgamenow.source.serverquery
+
+import com.goodgamenow.source.serverquery.response.QueryResult
+import com.goodgamenow.source.serverquery.response.ServerInfo
+import io.netty.channel.DefaultEventLoop
+import io.netty.channel.EventLoop
+import io.netty.util.Timeout
+import io.netty.util.Timer
+import io.netty.util.TimerTask
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class RepollSchedulerTest extends Specification {
+
+  static final InetSocketAddress SERVER = new InetSocketAddress("10.0.0.4", 27015)
+
+  static final long MIN = 1000
+
+  static final long MAX = 16000
+
+  EventLoop eventLoop = new DefaultEventLoop()
+
+  // deadlines fire only when the test runs them
+  List<TimerTask> deadlines = []
+
+  List<Long> delays = []
+
+  Timer timer = [newTimeout: { TimerTask task, long delay, TimeUnit unit ->
+    deadlines << task
+    delays << unit.toMillis(delay)
+    [cancel: { true }] as Timeout
+  }] as Timer
+
+  List<ServerQuery> sent = []
+
+  RepollScheduler scheduler =
+      new RepollScheduler(eventLoop, { sent << it }, timer,
+                          new TokenBucket(1000, 1000), MIN, MAX, 2)
+
+  def cleanup() {
+    eventLoop.shutdownGracefully()
+  }
+
+  void sync() {
+    eventLoop.submit({}).get()
+  }
+
+  void poll() {
+    deadlines.last().run(null)
+    sync()
+  }
+
+  void answer(int players, String map) {
+    ServerInfo info = new ServerInfo(SERVER).players((byte) players)
+                                            .map(map) as ServerInfo
+    scheduler.answered(new QueryResult(info))
+    sync()
+  }
+
+  static boolean around(long delay, long interval) {
+    delay >= interval * 0.9 && delay <= interval * 1.1
+  }
+
+  def "servers are polled for their info"() {
+    when:
+    scheduler.add(SERVER)
+    scheduler.add(SERVER)
+    sync()
+
+    then:
+    scheduler.size() == 1
+    deadlines.size() == 1
+    delays[0] < MIN
+
+    when:
+    poll()
+
+    then:
+    sent.size() == 1
+    sent[0].address == SERVER
+    sent[0].queryId == RepollScheduler.QUERY_ID
+    sent[0].serverInfoRequest == ServerQuery.ServerInfoRequest.NEEDED
+    sent[0].playerInfoRequest == ServerQuery.PlayerInfoRequest.NOT_NEEDED
+  }
+
+  def "a server first answered at runtime gets polled"() {
+    given: "a session's query engine feeding its answers to the scheduler"
+    def engineTimer = [newTimeout: { TimerTask task, long delay, TimeUnit unit ->
+      [cancel: { true }] as Timeout
+    }] as Timer
+    def engine = new SharedQueryEngine({}, engineTimer, 5000, 10000)
+        .resultListener { scheduler.add(it.from()) }
+
+    when:
+    engine.submit(new ServerQuery(SERVER), {})
+    engine.answered(new QueryResult(new ServerInfo(SERVER)))
+    sync()
+
+    then:
+    scheduler.size() == 1
+
+    when:
+    poll()
+
+    then:
+    sent.size() == 1
+    sent[0].address == SERVER
+    sent[0].queryId == RepollScheduler.QUERY_ID
+  }
+
+  def "unchanged servers back off, populated ones only so far"() {
+    given:
+    scheduler.add(SERVER)
+    sync()
+
+    when: "the first answer is a change"
+    poll()
+    answer(5, "cp_badlands")
+
+    then:
+    around(delays.last(), MIN)
+
+    when:
+    3.times {
+      poll()
+      answer(5, "cp_badlands")
+    }
+
+    then:
+    around(delays.last(), 4 * MIN)
+
+    when: "the server empties and stays empty"
+    poll()
+    answer(0, "cp_badlands")
+
+    then:
+    around(delays.last(), MIN)
+
+    when:
+    5.times {
+      poll()
+      answer(0, "cp_badlands")
+    }
+
+    then:
+    around(delays.last(), MAX)
+
+    when: "the map changes"
+    poll()
+    answer(0, "ctf_2fort")
+
+    then:
+    around(delays.last(), MIN)
+  }
+
+  def "servers that stop answering are dropped"() {
+    given:
+    scheduler.add(SERVER)
+    sync()
+    poll()
+    answer(5, "cp_badlands")
+
+    when:
+    poll()
+    poll()
+
+    then: "each miss doubles the interval"
+    sent.size() == 3
+    around(delays.last(), 2 * MIN)
+
+    when:
+    poll()
+
+    then:
+    sent.size() == 4
+    around(delays.last(), 4 * MIN)
+    scheduler.size() == 1
+
+    when:
+    poll()
+
+    then:
+    sent.size() == 4
+    scheduler.size() == 0
+  }
+
+  def "polls wait for the budget"() {
+    given:
+    def budget = new TokenBucket(1, 1)
+    budget.tryAcquire(1)
+    scheduler = new RepollScheduler(eventLoop, { sent << it }, timer, budget,
+                                    MIN, MAX, 2)
+    scheduler.add(SERVER)
+    sync()
+
+    when:
+    poll()
+
+    then:
+    sent.empty
+    delays.last() > 0
+    delays.last() <= 1000
+  }
+}
@@ -0,0 +1,88 @@
+package com.goodgamenow.source.serverquery
+
+import com.goodgamenow.source.serverquery.response.QueryResult
+import com.goodgamenow.source.serverquery.response.ServerInfo
+import io.netty.channel.ChannelOutboundHandlerAdapter
+import io.netty.channel.embedded.EmbeddedChannel
+import spock.lang.Specification
+
+class ResultCoalescerTest extends Specification {
+
+  EmbeddedChannel channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter())
+
+  ResultCoalescer coalescer = new ResultCoalescer(channel.pipeline().firstContext(),
+                                                  new ResultCoalescer.Limits(3, 10_000))
+
+  def cleanup() {
+    channel.finishAndReleaseAll()
+  }
+
+  static QueryResult result(int i) {
+    new QueryResult(new ServerInfo(new InetSocketAddress("10.0.0.1", 27015 + i)))
+  }
+
+  List<QueryResult> flushed() {
+    def results = []
+    for (def msg = channel.readOutbound(); msg != null; msg = channel.readOutbound()) {
+      results << msg
+    }
+    results
+  }
+
+  def "results are flushed once enough are waiting"() {
+    given:
+    def results = (0..3).collect { result(it) }
+
+    when:
+    coalescer.add(results[0])
+    coalescer.add(results[1])
+    coalescer.readComplete()
+
+    then:
+    flushed().empty
+
+    when:
+    coalescer.add(results[2])
+    coalescer.add(results[3])
+
+    then:
+    flushed() == results[0..2]
+  }
+
+  def "results are flushed once the first has lingered long enough"() {
+    given:
+    coalescer.limits(new ResultCoalescer.Limits(100, 20))
+
+    when:
+    coalescer.add(result(0))
+    coalescer.add(result(1))
+    channel.runScheduledPendingTasks()
+
+    then:
+    flushed().empty
+
+    when:
+    Thread.sleep(40)
+    channel.runScheduledPendingTasks()
+
+    then:
+    flushed().size() == 2
+  }
+
+  def "without coalescing results are flushed after every read"() {
+    given:
+    coalescer.limits(new ResultCoalescer.Limits(100, 0))
+
+    when:
+    coalescer.add(result(0))
+
+    then:
+    flushed().empty
+
+    when:
+    coalescer.readComplete()
+
+    then:
+    flushed().size() == 1
+  }
+}
@@ -0,0 +1,90 @@
+package com.goodgamenow.source.serverquery
+
+import io.netty.channel.embedded.EmbeddedChannel
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static com.goodgamenow.source.serverquery.ServerQueryCodecTest.SERVER
+
+class SendPacerTest extends Specification {
+
+  static ServerQuery query(int port) {
+    new ServerQuery(new InetSocketAddress("10.0.0.1", port))
+  }
+
+  def "bucket allows a burst and then the steady rate"() {
+    given:
+    def bucket = new TokenBucket(1000, 3)
+
+    expect:
+    bucket.tryAcquire(1)
+    bucket.tryAcquire(2)
+    !bucket.tryAcquire(1)
+    bucket.nanosUntilAvailable(1) > 0
+    bucket.nanosUntilAvailable(1) <= 1_000_000
+
+    when:
+    Thread.sleep(5)
+
+    then:
+    bucket.tryAcquire(3)
+  }
+
+  def "queries over the burst are queued and sent in order"() {
+    given:
+    def pacer = new SendPacer(new TokenBucket(200, 2))
+    def channel = new EmbeddedChannel(pacer)
+    def conditions = new PollingConditions(timeout: 2, delay: 0.005)
+    def sent = []
+
+    when:
+    (1..6).each { channel.write(query(it)) }
+    channel.flush()
+    sent.addAll(channel.outboundMessages())
+    channel.outboundMessages().clear()
+
+    then: "the burst went straight out, the rest wait"
+    sent*.address*.port == [1, 2]
+    pacer.queueDepth() == 4
+
+    and: "the queue drains at the bucket's rate"
+    conditions.eventually {
+      channel.runPendingTasks()
+      sent.addAll(channel.outboundMessages())
+      channel.outboundMessages().clear()
+      assert sent*.address*.port == [1, 2, 3, 4, 5, 6]
+    }
+    pacer.queueDepth() == 0
+
+    cleanup:
+    channel.finish()
+  }
+
+  def "pipelined queries take a permit per datagram"() {
+    given:
+    def pacer = new SendPacer(new TokenBucket(1, 3))
+    def channel = new EmbeddedChannel(pacer)
+    def pipelined = new ServerQuery(SERVER,
+                                    ServerQuery.NO_ID,
+                                    ServerQuery.ServerInfoRequest.NEEDED,
+                                    ServerQuery.PlayerInfoRequest.NEEDED,
+                                    ServerQuery.ServerRulesRequest.NEEDED,
+                                    ServerQuery.Retries.MAX_RETRIES,
+                                    ServerQuery.Challenge.RESET,
+                                    ServerQuery.Pipelining.PIPELINED)
+
+    when:
+    channel.writeOutbound(pipelined, query(2))
+
+    then:
+    channel.readOutbound() == pipelined
+    channel.readOutbound() == null
+    pacer.queueDepth() == 1
+
+    when: "closing fails what is still queued"
+    channel.close()
+
+    then:
+    pacer.queueDepth() == 0
+  }
+}
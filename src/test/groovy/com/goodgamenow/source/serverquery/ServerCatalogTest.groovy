@@ -0,0 +1,119 @@
+package com.goodgamenow.source.serverquery
+
+import com.goodgamenow.source.serverquery.response.ServerInfo
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+class ServerCatalogTest extends Specification {
+
+  static final InetSocketAddress SERVER = new InetSocketAddress("10.0.0.4", 27015)
+
+  Path file = Files.createTempDirectory("catalog").resolve("servers.bin")
+
+  def cleanup() {
+    file.parent.toFile().deleteDir()
+  }
+
+  static ServerInfo info(InetSocketAddress from, int players) {
+    new ServerInfo(from)
+        .protocol((byte) 17)
+        .name("Test server")
+        .map("cp_badlands")
+        .folder("tf")
+        .game("Team Fortress")
+        .appId((short) 440)
+        .players((byte) players)
+        .maxPlayers((byte) 24)
+        .version("4103362")
+        .extraDataFlag((byte) 0xA1)
+        .gamePort((short) 27015)
+        .keywords("cp,nocrits")
+        .gameId(440L)
+        .latency(42) as ServerInfo
+  }
+
+  def "servers are read back after a restart"() {
+    given:
+    def catalog = ServerCatalog.open(file)
+    catalog.record(info(SERVER, 3))
+    catalog.record(info(SERVER, 5))
+    catalog.close()
+
+    when:
+    def reopened = ServerCatalog.open(file)
+    def restored = reopened.lastKnown(SERVER).get().serverInfo.get()
+
+    then:
+    reopened.size() == 1
+    reopened.addresses() == [SERVER]
+    restored.from() == SERVER
+    restored.latency() == 42
+    restored.name == "Test server"
+    restored.map == "cp_badlands"
+    restored.players == 5
+    restored.gamePort == 27015
+    restored.keywords == "cp,nocrits"
+    restored.gameId == 440L
+    !reopened.lastKnown(new InetSocketAddress("10.0.0.5", 27015)).isPresent()
+
+    cleanup:
+    reopened?.close()
+  }
+
+  def "a torn record at the end is cut off"() {
+    given:
+    def catalog = ServerCatalog.open(file)
+    catalog.record(info(SERVER, 3))
+    catalog.close()
+    long intact = Files.size(file)
+    Files.write(file, [0, 0, 0, 60, 1, 2] as byte[], StandardOpenOption.APPEND)
+
+    when:
+    def reopened = ServerCatalog.open(file)
+
+    then:
+    reopened.size() == 1
+    Files.size(file) == intact
+
+    cleanup:
+    reopened?.close()
+  }
+
+  def "an outdated log is compacted"() {
+    given:
+    def catalog = ServerCatalog.open(file)
+
+    when:
+    (ServerCatalog.COMPACT_MIN_RECORDS + 1).times {
+      catalog.record(info(SERVER, it % 20))
+      if (it % 1000 == 0) {
+        catalog.sync().get()
+      }
+    }
+    catalog.sync().get()
+    catalog.close()
+    def reopened = ServerCatalog.open(file)
+
+    then:
+    Files.size(file) < 1000
+    reopened.lastKnown(SERVER).get().serverInfo.get().players ==
+        ServerCatalog.COMPACT_MIN_RECORDS % 20
+
+    cleanup:
+    reopened?.close()
+  }
+
+  def "files that are not a catalog are refused"() {
+    given:
+    Files.write(file, "not a catalog".bytes)
+
+    when:
+    ServerCatalog.open(file)
+
+    then:
+    thrown(IOException)
+  }
+}
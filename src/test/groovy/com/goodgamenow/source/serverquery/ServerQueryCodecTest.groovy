@@ -0,0 +1,261 @@
+package com.goodgamenow.source.serverquery
+
+import com.goodgamenow.source.serverquery.response.FlyweightServerInfo
+import com.goodgamenow.source.serverquery.response.ServerInfo
+import com.goodgamenow.source.serverquery.response.ServerRules
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.channel.socket.DatagramPacket
+import io.netty.util.CharsetUtil
+import io.netty.util.HashedWheelTimer
+import org.itadaki.bzip2.BZip2OutputStream
+import spock.lang.Specification
+
+import java.nio.ByteOrder
+import java.util.concurrent.TimeUnit
+import java.util.zip.CRC32
+
+/**
+ * Decodes hand built response datagrams without touching the network.
+ */
+class ServerQueryCodecTest extends Specification {
+
+  static final InetSocketAddress SERVER = new InetSocketAddress("10.0.0.1", 27015)
+
+  static final InetSocketAddress LOCAL = new InetSocketAddress("127.0.0.1", 27005)
+
+  // split packet deadlines, one worker thread per spec
+  HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS)
+
+  def cleanup() {
+    timer.stop()
+  }
+
+  static ByteBuf le(ByteBuf buf) {
+    buf.order(ByteOrder.LITTLE_ENDIAN)
+  }
+
+  static void writeString(ByteBuf buf, String value) {
+    buf.writeBytes(value.getBytes(CharsetUtil.UTF_8)).writeByte(0)
+  }
+
+  static DatagramPacket serverInfoPacket(int edf, int players = 18) {
+    ByteBuf content = Unpooled.buffer()
+    ByteBuf buf = le(content)
+    buf.writeInt(-1).writeByte(0x49).writeByte(17)
+    writeString(buf, "Some Server")
+    writeString(buf, "cp_badlands")
+    writeString(buf, "tf")
+    writeString(buf, "Team Fortress")
+    buf.writeShort(440).writeByte(players).writeByte(24).writeByte(2)
+       .writeByte(0x64).writeByte(0x6C).writeByte(0).writeByte(1)
+    writeString(buf, "4103362")
+    buf.writeByte(edf)
+    if (edf & 0x80) buf.writeShort(27015)
+    if (edf & 0x10) buf.writeLong(90101843413520393L)
+    if (edf & 0x40) {
+      buf.writeShort(27020)
+      writeString(buf, "SourceTV")
+    }
+    if (edf & 0x20) writeString(buf, "alltalk,cp")
+    if (edf & 0x01) buf.writeLong(440L)
+    new DatagramPacket(content, LOCAL, SERVER)
+  }
+
+  static Object decodeOne(ServerQueryCodec codec, DatagramPacket packet) {
+    EmbeddedChannel channel = new EmbeddedChannel(codec)
+    channel.writeInbound(packet)
+    def result = channel.readInbound()
+    channel.finish()
+    result
+  }
+
+  def "flyweight server info matches eager decoding"() {
+    when:
+    ServerInfo eager = decodeOne(new ServerQueryCodec(false), serverInfoPacket(edf))
+    ServerInfo flyweight = decodeOne(new ServerQueryCodec(true), serverInfoPacket(edf))
+
+    then:
+    flyweight instanceof FlyweightServerInfo
+    flyweight.toString() == eager.toString()
+    eager.name == "Some Server"
+    eager.map == "cp_badlands"
+    eager.appId == 440 as short
+    eager.players == 18 as byte
+    eager.extraDataFlag == edf as byte
+    eager.gamePort == ((edf & 0x80) ? 27015 : 0) as short
+    eager.keywords == ((edf & 0x20) ? "alltalk,cp" : null)
+    eager.gameId == ((edf & 0x01) ? 440L : 0L)
+
+    where:
+    edf << [0x00, 0x80, 0xB1, 0xF1]
+  }
+
+  def "flyweight rejects a truncated payload"() {
+    when:
+    new FlyweightServerInfo(SERVER, [17, 0x61, 0] as byte[])
+
+    then:
+    thrown IllegalStateException
+  }
+
+  def "repeated strings decode to one cached instance"() {
+    given:
+    StringCache cache = new StringCache(64)
+
+    when:
+    ServerInfo first = decodeOne(new ServerQueryCodec(false, cache), serverInfoPacket(0xB1))
+    ServerInfo second = decodeOne(new ServerQueryCodec(false, cache), serverInfoPacket(0xB1))
+
+    then:
+    first.map == "cp_badlands"
+    first.map.is(second.map)
+    first.keywords.is(second.keywords)
+    !first.name.is(second.name)
+  }
+
+  def "string cache compares bytes, not just hashes"() {
+    given:
+    StringCache cache = new StringCache(1)
+    ByteBuf a = Unpooled.copiedBuffer("de_dust2", CharsetUtil.UTF_8)
+    ByteBuf b = Unpooled.copiedBuffer("cp_well", CharsetUtil.UTF_8)
+
+    expect:
+    cache.get(a, 0, a.readableBytes()) == "de_dust2"
+    cache.get(b, 0, b.readableBytes()) == "cp_well"
+    cache.get(a, 0, a.readableBytes()) == "de_dust2"
+  }
+
+  static byte[] rulesPayload(int ruleCount) {
+    ByteBuf buf = le(Unpooled.buffer())
+    buf.writeInt(-1).writeByte(0x45).writeShort(ruleCount)
+    ruleCount.times {
+      writeString(buf, "rule_" + it)
+      writeString(buf, String.valueOf(it))
+    }
+    byte[] bytes = new byte[buf.readableBytes()]
+    buf.readBytes(bytes)
+    bytes
+  }
+
+  static List<DatagramPacket> split(byte[] payload, int id, int total) {
+    int chunk = (payload.length + total - 1).intdiv(total)
+    (0..<total).collect { int number ->
+      ByteBuf buf = le(Unpooled.buffer())
+      buf.writeInt(-2).writeInt(id).writeByte(total).writeByte(number)
+         .writeShort(1248)
+      int from = number * chunk
+      buf.writeBytes(payload, from, Math.min(chunk, payload.length - from))
+      new DatagramPacket(buf.order(ByteOrder.BIG_ENDIAN), LOCAL, SERVER)
+    }
+  }
+
+  def "split packets arriving out of order are reassembled and released"() {
+    given:
+    def reassembler = new SplitPacketReassembler(timer, 1000, 1 << 20)
+    def channel = new EmbeddedChannel(new ServerQueryCodec(false, null, reassembler))
+    def packets = split(rulesPayload(40), 7, 3)
+
+    when:
+    channel.writeInbound(packets[2])
+    channel.writeInbound(packets[0])
+    channel.writeInbound(packets[1])
+    ServerRules rules = channel.readInbound()
+
+    then:
+    rules.properties.size() == 40
+    rules.properties.getProperty("rule_39") == "39"
+    reassembler.completed() == 1
+    reassembler.pendingGroups() == 0
+    reassembler.pendingBytes() == 0
+    packets.every { it.refCnt() == 0 }
+  }
+
+  def "groups with a lost fragment expire"() {
+    given:
+    def reassembler = new SplitPacketReassembler(timer, 50, 1 << 20)
+    def channel = new EmbeddedChannel(new ServerQueryCodec(false, null, reassembler))
+    def packets = split(rulesPayload(40), 8, 3)
+
+    when:
+    channel.writeInbound(packets[0])
+    channel.writeInbound(packets[2])
+    Thread.sleep(300)
+
+    then:
+    channel.readInbound() == null
+    reassembler.expired() == 1
+    reassembler.pendingGroups() == 0
+    packets[0].refCnt() == 0
+    packets[2].refCnt() == 0
+  }
+
+  def "going over the byte budget evicts the oldest group"() {
+    given:
+    byte[] payload = rulesPayload(40)
+    def reassembler = new SplitPacketReassembler(timer, 1000, payload.length * 3 / 4 as int)
+    def channel = new EmbeddedChannel(new ServerQueryCodec(false, null, reassembler))
+    def first = split(payload, 1, 2)
+    def second = split(payload, 2, 2)
+
+    when:
+    channel.writeInbound(first[0])
+    channel.writeInbound(second[0])
+    channel.writeInbound(second[1])
+
+    then:
+    channel.readInbound() instanceof ServerRules
+    reassembler.evicted() == 1
+    reassembler.completed() == 1
+    first[0].refCnt() == 0
+  }
+
+  static byte[] compress(byte[] payload, int crcAdjust) {
+    def compressed = new ByteArrayOutputStream()
+    new BZip2OutputStream(compressed).withStream { it.write(payload) }
+    CRC32 crc = new CRC32()
+    crc.update(payload)
+    ByteBuf buf = le(Unpooled.buffer())
+    buf.writeInt(payload.length).writeInt((int) crc.value + crcAdjust)
+       .writeBytes(compressed.toByteArray())
+    byte[] bytes = new byte[buf.readableBytes()]
+    buf.readBytes(bytes)
+    bytes
+  }
+
+  def "compressed split packets are decompressed and checked"() {
+    given:
+    def reassembler = new SplitPacketReassembler(timer, 1000, 1 << 20)
+    def channel = new EmbeddedChannel(new ServerQueryCodec(false, null, reassembler))
+    int compressedId = Integer.MIN_VALUE | 9
+    def packets = split(compress(rulesPayload(200), crcAdjust), compressedId, 2)
+
+    when:
+    packets.each { channel.writeInbound(it) }
+    ServerRules rules = channel.readInbound()
+    int decodedRules = (rules == null) ? 0 : rules.properties.size()
+
+    then:
+    decodedRules == expectedRules
+    packets.every { it.refCnt() == 0 }
+
+    where:
+    crcAdjust || expectedRules
+    0         || 200
+    1         || 0
+  }
+
+  static ByteBuf decompress(byte[] compressed, int maxLength) {
+    ByteBuf buf = Unpooled.wrappedBuffer(compressed)
+    BZip2PacketDecoder.current().decode(buf, buf.alloc(), maxLength)
+  }
+
+  def "decompressed length over the limit is refused"() {
+    when:
+    decompress(compress(rulesPayload(200), 0), 100)
+
+    then:
+    thrown IllegalStateException
+  }
+}
@@ -0,0 +1,93 @@
+package com.goodgamenow.source.serverquery
+
+import io.netty.channel.Channel
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.channel.socket.DatagramPacket
+import io.netty.util.HashedWheelTimer
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+import static com.goodgamenow.source.serverquery.ServerQueryCodecTest.*
+
+/**
+ * Checks that unanswered queries are resent from their own deadlines while
+ * the channel stays busy.
+ */
+class ServerQueryPumpTest extends Specification {
+
+  static final long TIMEOUT = 200
+
+  Map<Channel, Map<InetSocketAddress, QueryState>> reconcileMaps =
+      new ConcurrentHashMap<>()
+
+  Map<InetSocketAddress, QueryState> reconcileMap = new ReconcileMap<>()
+
+  HashedWheelTimer timer = new HashedWheelTimer(5, TimeUnit.MILLISECONDS)
+
+  EmbeddedChannel channel = new EmbeddedChannel(
+      new ServerQueryCodec(),
+      new ServerQueryPump(reconcileMaps, timer, TIMEOUT))
+
+  def setup() {
+    reconcileMaps.put(channel, reconcileMap)
+  }
+
+  def cleanup() {
+    // stopped first so a channel failing to finish can't leak the worker
+    timer.stop()
+    channel.finishAndReleaseAll()
+  }
+
+  int sent
+
+  /**
+   * Counts the datagrams written so far, keeping inbound traffic flowing in
+   * between, which used to hold off idle based retries.
+   */
+  int sent() {
+    channel.writeInbound(serverInfoPacket(0))
+    channel.readInbound()
+    channel.runPendingTasks()
+    DatagramPacket packet
+    while ((packet = channel.readOutbound()) != null) {
+      packet.release()
+      sent++
+    }
+    sent
+  }
+
+  def "unanswered queries are retried until out of retries"() {
+    given:
+    def conditions = new PollingConditions(timeout: 5, delay: 0.005)
+
+    when:
+    channel.writeOutbound(new ServerQuery(SERVER))
+
+    then: "the first deadline resent it"
+    conditions.eventually {
+      assert sent() == 2
+      assert reconcileMap[SERVER].retries() == 2
+    }
+
+    and: "every retry was sent and the query dropped"
+    conditions.eventually {
+      assert sent() == 4
+      assert reconcileMap.isEmpty()
+    }
+  }
+
+  def "a later write pushes the deadline back"() {
+    when:
+    channel.writeOutbound(new ServerQuery(SERVER))
+    Thread.sleep(TIMEOUT.intdiv(2))
+    channel.writeOutbound(new ServerQuery(SERVER))
+    Thread.sleep(TIMEOUT.intdiv(2) + 10)
+
+    then: "the first deadline was cancelled"
+    sent() == 2
+    reconcileMap[SERVER].retries() == 3
+  }
+}
@@ -0,0 +1,47 @@
+package com.goodgamenow.source.serverquery
+
+import io.netty.channel.nio.NioEventLoopGroup
+import spock.lang.Shared
+import spock.lang.Specification
+
+class ServerQueryShardsTest extends Specification {
+
+  @Shared
+  NioEventLoopGroup group = new NioEventLoopGroup(4)
+
+  def cleanupSpec() {
+    group.shutdownGracefully().sync()
+  }
+
+  def "each shard has its own port and event loop"() {
+    when:
+    def shards = new ServerQueryBootstrap(group).bindShards(4)
+
+    then:
+    shards.size() == 4
+    shards.isOpen()
+    shards.channels()*.localAddress()*.port.unique().size() == 4
+    shards.channels()*.eventLoop().unique().size() == 4
+
+    when:
+    shards.close().sync()
+
+    then:
+    !shards.isOpen()
+  }
+
+  def "a server always maps to the same shard and servers spread out"() {
+    given:
+    def shards = new ServerQueryBootstrap(group).bindShards(4)
+    def servers = (1..400).collect {
+      new InetSocketAddress("10.0.${it % 7}.${it % 251}", 27015 + it % 5)
+    }
+
+    expect:
+    servers.every { shards.channelFor(it) == shards.channelFor(new InetSocketAddress(it.hostString, it.port)) }
+    servers.countBy { shards.channelFor(it) }.values().every { it > 50 }
+
+    cleanup:
+    shards.close().sync()
+  }
+}
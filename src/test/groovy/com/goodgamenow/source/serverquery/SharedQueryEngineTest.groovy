@@ -0,0 +1,116 @@
+package com.goodgamenow.source.serverquery
+
+import com.goodgamenow.source.serverquery.response.QueryResult
+import com.goodgamenow.source.serverquery.response.ServerInfo
+import io.netty.util.Timeout
+import io.netty.util.Timer
+import io.netty.util.TimerTask
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class SharedQueryEngineTest extends Specification {
+
+  static final InetSocketAddress SERVER = new InetSocketAddress("10.0.0.5", 27015)
+
+  // deadlines fire only when the test runs them
+  List<TimerTask> deadlines = []
+
+  Timer timer = [newTimeout: { TimerTask task, long delay, TimeUnit unit ->
+    deadlines << task
+    [cancel: { true }] as Timeout
+  }] as Timer
+
+  List<ServerQuery> sent = []
+
+  SharedQueryEngine engine = new SharedQueryEngine({ sent << it }, timer, 60_000, 10_000)
+
+  static ServerQuery query(boolean rules) {
+    new ServerQuery(SERVER, "a",
+                    ServerQuery.ServerInfoRequest.NEEDED,
+                    ServerQuery.PlayerInfoRequest.NEEDED,
+                    rules ? ServerQuery.ServerRulesRequest.NEEDED
+                          : ServerQuery.ServerRulesRequest.NOT_NEEDED,
+                    ServerQuery.Retries.MAX_RETRIES,
+                    ServerQuery.Challenge.RESET)
+  }
+
+  static QueryResult result() {
+    new QueryResult(new ServerInfo(SERVER))
+  }
+
+  def "sessions asking for the same server share one query"() {
+    given:
+    def first = []
+    def second = []
+    def answer = result()
+
+    when:
+    engine.submit(query(false), { first << it })
+    engine.submit(query(false), { second << it })
+
+    then:
+    sent.size() == 1
+
+    when:
+    engine.answered(answer)
+
+    then:
+    first == [answer]
+    second == [answer]
+  }
+
+  def "a fresh result is handed out without querying"() {
+    given:
+    def answer = result()
+    engine.submit(query(false), {})
+    engine.answered(answer)
+    def later = []
+
+    when:
+    engine.submit(query(false), { later << it })
+
+    then:
+    sent.size() == 1
+    later == [answer]
+  }
+
+  def "a session needing more than the query in flight is queried for next"() {
+    given:
+    def plain = []
+    def withRules = []
+
+    when:
+    engine.submit(query(false), { plain << it })
+    engine.submit(query(true), { withRules << it })
+    engine.answered(result())
+
+    then:
+    plain.size() == 1
+    withRules.empty
+    sent.size() == 2
+    sent[1].serverRulesRequest.isNeeded()
+    sent[1].playerInfoRequest.isNeeded()
+
+    when:
+    engine.answered(result())
+
+    then:
+    withRules.size() == 1
+  }
+
+  def "a query that never finishes is given up on"() {
+    given:
+    def heard = []
+    engine.submit(query(false), { heard << it })
+
+    when:
+    deadlines.last().run(null)
+    engine.submit(query(false), { heard << it })
+
+    then:
+    sent.size() == 2
+    heard.empty
+    engine.size() == 1
+  }
+}
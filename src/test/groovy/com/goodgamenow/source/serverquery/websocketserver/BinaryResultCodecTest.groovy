@@ -0,0 +1,138 @@
+package com.goodgamenow.source.serverquery.websocketserver
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.goodgamenow.source.serverquery.response.PlayerInfo
+import com.goodgamenow.source.serverquery.response.PlayerInfos
+import com.goodgamenow.source.serverquery.response.QueryResult
+import com.goodgamenow.source.serverquery.response.ServerInfo
+import com.goodgamenow.source.serverquery.response.ServerRules
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import spock.lang.Specification
+
+class BinaryResultCodecTest extends Specification {
+
+  static final InetSocketAddress SERVER = new InetSocketAddress("10.0.0.4", 27015)
+
+  BinaryResultCodec.Encoder encoder = new BinaryResultCodec.Encoder()
+
+  BinaryResultCodec.Decoder decoder = new BinaryResultCodec.Decoder()
+
+  static QueryResult result(InetSocketAddress from) {
+    ServerInfo info = new ServerInfo(from)
+        .protocol((byte) 17)
+        .name("Test server")
+        .map("cp_badlands")
+        .folder("tf")
+        .game("Team Fortress")
+        .appId((short) 440)
+        .players((byte) 200)
+        .maxPlayers((byte) 24)
+        .version("4103362")
+        .extraDataFlag((byte) 0xB1)
+        .gamePort((short) 27015)
+        .serverSteamId(90101234567890L)
+        .keywords("cp,nocrits")
+        .gameId(440L)
+        .latency(42) as ServerInfo
+    PlayerInfos players = new PlayerInfos(from).players(
+        [new PlayerInfo(0, "heavy", 12, 30.5f),
+         new PlayerInfo(1, "spy", -3, 1.25f)])
+    players.latency(43)
+    ServerRules rules = new ServerRules(from)
+    rules.properties.setProperty("mp_timelimit", "30")
+    rules.properties.setProperty("sv_tags", "cp,nocrits")
+    rules.latency(44)
+    new QueryResult(info).playerInfos(players).serverRules(rules)
+  }
+
+  ByteBuf encode(QueryResult result) {
+    ByteBuf buf = Unpooled.buffer()
+    encoder.encode(result, buf)
+    buf
+  }
+
+  def "results survive a round trip"() {
+    given:
+    ByteBuf buf = encode(result(SERVER))
+
+    when:
+    def decoded = decoder.decode(buf)
+    def info = decoded.serverInfo.get()
+    def players = decoded.playerInfos().get().players
+    def rules = decoded.serverRules().get().properties
+
+    then:
+    !buf.isReadable()
+    decoded.from() == SERVER
+    info.name == "Test server"
+    info.map == "cp_badlands"
+    info.game == "Team Fortress"
+    info.appId == 440
+    info.players == (byte) 200
+    info.gamePort == 27015
+    info.serverSteamId == 90101234567890L
+    info.keywords == "cp,nocrits"
+    info.gameId == 440L
+    info.latency() == 42
+    players*.name == ["heavy", "spy"]
+    players*.score == [12, -3]
+    players*.duration == [30.5f, 1.25f]
+    rules == ["mp_timelimit": "30", "sv_tags": "cp,nocrits"]
+    decoded.serverRules().get().latency() == 44
+  }
+
+  def "shared strings are sent once per connection"() {
+    given:
+    ByteBuf firstBuf = encode(result(SERVER))
+    int first = firstBuf.readableBytes()
+    decoder.decode(firstBuf)
+
+    when:
+    ByteBuf buf = encode(result(new InetSocketAddress("10.0.0.5", 27015)))
+    int second = buf.readableBytes()
+    def decoded = decoder.decode(buf)
+
+    then:
+    second < first - "cp_badlandsTeam Fortress".length()
+    decoded.serverInfo.get().map == "cp_badlands"
+    decoded.serverRules().get().properties.getProperty("mp_timelimit") == "30"
+  }
+
+  def "binary results are smaller than json"() {
+    given:
+    def result = result(SERVER)
+
+    expect:
+    encode(result).readableBytes() * 3 < result.toJson(new ObjectMapper()).length()
+  }
+
+  def "varints take as few bytes as they need"() {
+    given:
+    ByteBuf buf = Unpooled.buffer()
+
+    when:
+    BinaryResultCodec.writeVarint(buf, value)
+
+    then:
+    buf.readableBytes() == width
+    BinaryResultCodec.readVarint(buf) == value
+
+    where:
+    value             | width
+    0                 | 1
+    127               | 1
+    128               | 2
+    16383             | 2
+    Integer.MAX_VALUE | 5
+    -1                | 5
+  }
+
+  def "garbage is refused"() {
+    when:
+    decoder.decode(Unpooled.wrappedBuffer([4, 10, 0, 0, 4, 0x69, 0x87, 9] as byte[]))
+
+    then:
+    thrown(IllegalStateException)
+  }
+}
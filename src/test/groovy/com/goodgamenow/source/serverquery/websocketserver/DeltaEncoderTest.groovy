@@ -0,0 +1,86 @@
+package com.goodgamenow.source.serverquery.websocketserver
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.goodgamenow.source.serverquery.response.QueryResult
+import com.goodgamenow.source.serverquery.response.ServerInfo
+import spock.lang.Specification
+
+class DeltaEncoderTest extends Specification {
+
+  static final InetSocketAddress SERVER = new InetSocketAddress("10.0.0.4", 27015)
+
+  DeltaEncoder encoder = new DeltaEncoder(new ObjectMapper(), 3)
+
+  static QueryResult result(InetSocketAddress from, int players, String map) {
+    new QueryResult(new ServerInfo(from).name("Test server")
+                                        .map(map)
+                                        .players((byte) players) as ServerInfo)
+  }
+
+  def "the first result of a server is sent whole"() {
+    when:
+    def message = encoder.encode(result(SERVER, 3, "cp_badlands")).get()
+
+    then:
+    message.get("full").asBoolean()
+    message.get("from").asText() == SERVER.toString()
+    message.path("serverInfo").get("name").asText() == "Test server"
+    message.path("serverInfo").get("players").asInt() == 3
+  }
+
+  def "later results only carry what changed"() {
+    given:
+    encoder.encode(result(SERVER, 3, "cp_badlands"))
+
+    when:
+    def message = encoder.encode(result(SERVER, 4, "cp_badlands")).get()
+    def patch = message.get("patch")
+
+    then:
+    !message.has("full")
+    message.get("from").asText() == SERVER.toString()
+    patch.size() == 1
+    patch.get("serverInfo").size() == 1
+    patch.get("serverInfo").get("players").asInt() == 4
+
+    expect: "nothing is sent when nothing changed"
+    !encoder.encode(result(SERVER, 4, "cp_badlands")).isPresent()
+  }
+
+  def "keys that went away are nulled"() {
+    given:
+    encoder.encode(result(SERVER, 3, "cp_badlands"))
+
+    when:
+    def patch = encoder.encode(result(SERVER, 3, null)).get().get("patch")
+
+    then:
+    patch.get("serverInfo").get("map").isNull()
+  }
+
+  def "servers are resent whole every so often"() {
+    given:
+    encoder.encode(result(SERVER, 0, "cp_badlands"))
+
+    when:
+    def messages = (1..3).collect {
+      encoder.encode(result(SERVER, it, "cp_badlands")).get()
+    }
+
+    then:
+    messages*.has("full") == [false, false, true]
+    messages[2].path("serverInfo").get("players").asInt() == 3
+    messages[2].path("serverInfo").get("map").asText() == "cp_badlands"
+  }
+
+  def "servers are tracked apart"() {
+    when:
+    encoder.encode(result(SERVER, 3, "cp_badlands"))
+    def other = encoder.encode(
+        result(new InetSocketAddress("10.0.0.5", 27015), 3, "cp_badlands")).get()
+
+    then:
+    other.get("full").asBoolean()
+    encoder.size() == 2
+  }
+}
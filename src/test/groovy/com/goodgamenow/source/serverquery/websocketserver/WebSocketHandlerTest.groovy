@@ -0,0 +1,107 @@
+package com.goodgamenow.source.serverquery.websocketserver
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.goodgamenow.source.serverquery.MasterQuery
+import com.goodgamenow.source.serverquery.response.QueryResult
+import com.goodgamenow.source.serverquery.response.ServerInfo
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame
+import spock.lang.Specification
+
+class WebSocketHandlerTest extends Specification {
+
+  static final InetSocketAddress SERVER = new InetSocketAddress("10.0.0.4", 27015)
+
+  EmbeddedChannel channel = new EmbeddedChannel(new WebSocketHandler())
+
+  ObjectMapper mapper = new ObjectMapper()
+
+  def cleanup() {
+    channel.finishAndReleaseAll()
+  }
+
+  static QueryResult result(int players) {
+    new QueryResult(new ServerInfo(SERVER).name("Test server")
+                                          .map("cp_badlands")
+                                          .players((byte) players) as ServerInfo)
+  }
+
+  void request(Map params) {
+    def json = mapper.writeValueAsString([type: "master", id: "q1", region: "USWEST",
+                                          filter: "\\appid\\440", needsRules: false] + params)
+    channel.writeInbound(new TextWebSocketFrame(json))
+    assert channel.readInbound() instanceof MasterQuery
+  }
+
+  List<String> frames() {
+    def texts = []
+    for (def frame = channel.readOutbound(); frame != null; frame = channel.readOutbound()) {
+      texts << (frame as TextWebSocketFrame).text()
+      frame.release()
+    }
+    texts
+  }
+
+  def "results are sent as json documents"() {
+    when:
+    channel.writeOutbound(result(3))
+
+    then:
+    def texts = frames()
+    texts.size() == 1
+    mapper.readTree(texts[0]).get("serverInfo").get("players").asInt() == 3
+  }
+
+  def "patches of results that change nothing are not sent"() {
+    given:
+    request(delta: true)
+
+    when:
+    channel.writeOutbound(result(3))
+    channel.writeOutbound(result(3))
+    channel.writeOutbound(result(4))
+
+    then:
+    def texts = frames()
+    texts.size() == 2
+    mapper.readTree(texts[0]).get("full").asBoolean()
+    mapper.readTree(texts[1]).get("patch").get("serverInfo").get("players").asInt() == 4
+  }
+
+  def "batched results go out as one array per flush"() {
+    given:
+    request(batch: true)
+
+    when:
+    def writes = (1..3).collect { channel.write(result(it)) }
+
+    then:
+    channel.readOutbound() == null
+    !writes.any { it.done }
+
+    when:
+    channel.flush()
+
+    then:
+    def texts = frames()
+    texts.size() == 1
+    mapper.readTree(texts[0])*.get("serverInfo")*.get("players")*.asInt() == [1, 2, 3]
+    writes.every { it.success }
+  }
+
+  def "batched patches skip results that change nothing"() {
+    given:
+    request(batch: true, delta: true)
+
+    when:
+    channel.write(result(3))
+    channel.write(result(3))
+    channel.write(result(4))
+    channel.flush()
+
+    then:
+    def array = mapper.readTree(frames()[0])
+    array.size() == 2
+    array[1].get("patch").get("serverInfo").get("players").asInt() == 4
+  }
+}